@@ -0,0 +1,149 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Pattern;
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetBuilder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Datasets and networks shared by the benchmarks. Every benchmark that reads
+ * a dataset takes a data parameter: "synthetic" (the default) generates
+ * digit-like patterns in memory, so the benchmarks run without the MNIST
+ * files, while "mnist" loads the real datasets from the classpath.
+ *
+ * @author Abrie van Aardt
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Keeps the per-epoch training logs out of the measurements.
+     */
+    static void quiet() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    /**
+     * @param data "synthetic" or "mnist"
+     * @param name "train" or "t10k", the MNIST dataset to load
+     * @param patterns number of synthetic patterns, the MNIST datasets are
+     * loaded in full
+     * @param seed
+     * @return the dataset
+     * @throws Exception
+     */
+    static Dataset dataset(String data, String name, int patterns, long seed) throws Exception {
+        if (SYNTHETIC.equals(data))
+            return synthetic(patterns, IMAGE_WIDTH_HEIGHT * IMAGE_WIDTH_HEIGHT, seed);
+        else if (MNIST.equals(data))
+            return Dataset.fromFile(RESOURCE_PREFIX + name, Precision.DOUBLE, new Random(seed));
+        throw new IllegalArgumentException("Unknown data " + data + ", expected "
+                + SYNTHETIC + " or " + MNIST + ".");
+    }
+
+    /**
+     * Patterns with the value range, ink density and targets of MNIST. Every
+     * class has its own template of ink pixels, of which a pattern inks most
+     * at random intensities, so that a network can learn to tell the classes
+     * apart and training behaves like it does on digits.
+     *
+     * @param patterns
+     * @param inputCount
+     * @param seed
+     * @return the dataset
+     */
+    static Dataset synthetic(int patterns, int inputCount, long seed) {
+        Random random = new Random(seed);
+        boolean[][] templates = new boolean[CLASSES][inputCount];
+        for (boolean[] template : templates) {
+            for (int i = 0; i < inputCount; i++) {
+                template[i] = random.nextDouble() < INK_DENSITY;
+            }
+        }
+
+        Dataset dataset = new Dataset();
+        dataset.setInputCount(inputCount);
+        dataset.setTargetCount(CLASSES);
+        double[] inputs = new double[inputCount];
+        double[] targets = new double[CLASSES];
+        for (int p = 0; p < patterns; p++) {
+            int digit = random.nextInt(CLASSES);
+            for (int i = 0; i < inputCount; i++) {
+                inputs[i] = templates[digit][i] && random.nextDouble() < 0.9
+                        ? Dataset.scale(1 + random.nextInt(255))
+                        : Dataset.scale(0);
+            }
+            Arrays.fill(targets, 0.1);
+            targets[digit] = 0.9;
+
+            Pattern pattern = new Pattern();
+            pattern.setInputs(inputs);
+            pattern.setTargets(targets);
+            dataset.addPattern(pattern);
+        }
+        return dataset;
+    }
+
+    /**
+     * Builds a network with an identity input layer and sigmoid hidden and
+     * output layers, with small random weights.
+     *
+     * @param topology neurons per layer separated by dashes, e.g. "784-30-10"
+     * @param engine "neuron" for a network of Neuron objects, "flat" for a
+     * FlatFFNeuralNet
+     * @param seed
+     * @return the network
+     * @throws Exception
+     */
+    static IFFNeuralNet network(String topology, String engine, long seed) throws Exception {
+        int[] layers = layers(topology);
+        FFNeuralNetBuilder builder = new FFNeuralNetBuilder().addLayer(layers[0], Identity.class);
+        for (int i = 1; i < layers.length; i++) {
+            builder.addLayer(layers[i], Sigmoid.class);
+        }
+
+        IFFNeuralNet network;
+        if ("neuron".equals(engine))
+            network = builder.build();
+        else if ("flat".equals(engine))
+            network = builder.buildFlat();
+        else
+            throw new IllegalArgumentException("Unknown engine " + engine + ", expected neuron or flat.");
+
+        Random random = new Random(seed);
+        double[] weights = new double[network.getDimensionality()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextGaussian() * 0.1;
+        }
+        network.setWeightVector(weights);
+        return network;
+    }
+
+    static int[] layers(String topology) {
+        String[] sizes = topology.split("-");
+        if (sizes.length < 2)
+            throw new IllegalArgumentException("A topology needs at least an input and output layer: " + topology);
+        int[] layers = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            layers[i] = Integer.parseInt(sizes[i].trim());
+        }
+        return layers;
+    }
+
+    static final String SYNTHETIC = "synthetic";
+    static final String MNIST = "mnist";
+    static final int IMAGE_WIDTH_HEIGHT = 28;
+    static final int CLASSES = 10;
+    static final String RESOURCE_PREFIX = "ac/up/cos711/digitrecognitionstudy/data/";
+    //about a fifth of the pixels of an MNIST digit are ink
+    private static final double INK_DENSITY = 0.2;
+}
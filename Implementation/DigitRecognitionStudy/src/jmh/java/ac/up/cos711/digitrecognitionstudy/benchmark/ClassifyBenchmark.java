@@ -0,0 +1,61 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The forward pass of one pattern through networks of the topologies of the
+ * study, on both network engines. The patterns are cycled through so that
+ * the inputs vary like they do during training.
+ *
+ * @author Abrie van Aardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifyBenchmark {
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.quiet();
+        network = BenchmarkData.network(topology, engine, SEED);
+        Dataset dataset = BenchmarkData.synthetic(PATTERNS, BenchmarkData.layers(topology)[0], SEED);
+        inputs = new double[PATTERNS][];
+        for (int i = 0; i < PATTERNS; i++) {
+            inputs[i] = dataset.getPatternAt(i).getInputs();
+        }
+    }
+
+    @Benchmark
+    public double[] classify() throws Exception {
+        next = next + 1 == PATTERNS ? 0 : next + 1;
+        return network.classify(inputs[next]);
+    }
+
+    //the all-inputs experiment, a wider hidden layer, the preprocessed
+    //experiment and a deeper network
+    @Param({"784-30-10", "784-100-10", "196-30-10", "784-100-30-10"})
+    public String topology;
+    @Param({"neuron", "flat"})
+    public String engine;
+    private IFFNeuralNet network;
+    private double[][] inputs;
+    private int next;
+    private static final int PATTERNS = 256;
+    private static final long SEED = 1;
+}
@@ -0,0 +1,67 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Preprocessing;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations on a dataset of the size of the MNIST training set: the shuffle
+ * that starts every epoch and the pixel averaging of the preprocessed
+ * experiment.
+ *
+ * @author Abrie van Aardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatasetBenchmark {
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.quiet();
+        dataset = BenchmarkData.dataset(data, "train", patterns, SEED);
+        dataset.setShuffleBlockSize(shuffleBlockSize);
+        random = new Random(SEED);
+        preprocessing = new Preprocessing();
+    }
+
+    @Benchmark
+    public Dataset shuffle() {
+        return dataset.shuffle(random);
+    }
+
+    @Benchmark
+    public Dataset averagePixels() throws Exception {
+        return preprocessing.averagePixels(dataset, BenchmarkData.IMAGE_WIDTH_HEIGHT, blockWidthHeight);
+    }
+
+    @Param({BenchmarkData.SYNTHETIC})
+    public String data;
+    @Param({"60000"})
+    public int patterns;
+    //0 shuffles the whole dataset, see Dataset.setShuffleBlockSize
+    @Param({"0"})
+    public int shuffleBlockSize;
+    //2 is the block of the preprocessed experiment
+    @Param({"2"})
+    public int blockWidthHeight;
+    private Dataset dataset;
+    private Random random;
+    private Preprocessing preprocessing;
+    private static final long SEED = 1;
+}
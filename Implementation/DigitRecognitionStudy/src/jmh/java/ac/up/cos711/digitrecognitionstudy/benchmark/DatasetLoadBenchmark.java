@@ -0,0 +1,52 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading an MNIST dataset from the classpath into columnar storage, see
+ * Dataset.fromFile. Unlike the other benchmarks this one has no synthetic option, as it
+ * measures the reading of the IDX files themselves; the MNIST image files
+ * must be in src/main/resources next to the label files.
+ *
+ * @author Abrie van Aardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DatasetLoadBenchmark {
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.quiet();
+        random = new Random(SEED);
+    }
+
+    @Benchmark
+    public Dataset fromFile() throws Exception {
+        return Dataset.fromFile(BenchmarkData.RESOURCE_PREFIX + name, precision, random);
+    }
+
+    @Param({"train", "t10k"})
+    public String name;
+    @Param({"DOUBLE", "SINGLE"})
+    public Precision precision;
+    private Random random;
+    private static final long SEED = 1;
+}
@@ -0,0 +1,69 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.util.TrainingTestingTuple;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.BackPropagation;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One epoch of back propagation, including the shuffle of the training set
+ * and the measurement of the training and validation errors that ends every
+ * epoch. The network's weights are initialised anew by every training run.
+ *
+ * @author Abrie van Aardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EpochBenchmark {
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.quiet();
+        network = BenchmarkData.network(topology, engine, SEED);
+        Dataset dataset = BenchmarkData.dataset(data, "train", patterns, SEED);
+        //the split of the study
+        TrainingTestingTuple split = dataset.split(TRAINING_PORTION);
+        trainingset = split.training;
+        validationset = split.testing;
+    }
+
+    @Benchmark
+    public double epoch() throws Exception {
+        BackPropagation trainer = new BackPropagation(0, LEARNING_RATE, BenchmarkData.CLASSES, RIGOR, 1);
+        trainer.train(network, trainingset, validationset);
+        return trainer.getValidationError();
+    }
+
+    @Param({BenchmarkData.SYNTHETIC})
+    public String data;
+    //patterns of the synthetic dataset, of which 80% are trained on
+    @Param({"12500"})
+    public int patterns;
+    @Param({"784-30-10"})
+    public String topology;
+    @Param({"neuron", "flat"})
+    public String engine;
+    private IFFNeuralNet network;
+    private Dataset trainingset;
+    private Dataset validationset;
+    private static final double TRAINING_PORTION = 0.8;
+    private static final double LEARNING_RATE = 0.05;
+    private static final double RIGOR = 0.2;
+    private static final long SEED = 1;
+}
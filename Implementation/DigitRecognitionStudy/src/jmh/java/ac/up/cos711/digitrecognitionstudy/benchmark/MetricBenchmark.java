@@ -0,0 +1,67 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.ClassificationAccuracy;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.DefaultNetworkError;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The error measures taken of a whole dataset after every epoch and at the
+ * end of every simulation, on a generalisation set sized like t10k.
+ *
+ * @author Abrie van Aardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricBenchmark {
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.quiet();
+        network = BenchmarkData.network(topology, engine, SEED);
+        dataset = BenchmarkData.dataset(data, "t10k", patterns, SEED);
+        networkError = new DefaultNetworkError();
+        classificationAccuracy = new ClassificationAccuracy(RIGOR);
+    }
+
+    @Benchmark
+    public double defaultNetworkError() throws Exception {
+        return networkError.measure(network, dataset);
+    }
+
+    @Benchmark
+    public double classificationAccuracy() throws Exception {
+        return classificationAccuracy.measure(network, dataset);
+    }
+
+    @Param({BenchmarkData.SYNTHETIC})
+    public String data;
+    @Param({"10000"})
+    public int patterns;
+    @Param({"784-30-10"})
+    public String topology;
+    @Param({"neuron", "flat"})
+    public String engine;
+    private IFFNeuralNet network;
+    private Dataset dataset;
+    private DefaultNetworkError networkError;
+    private ClassificationAccuracy classificationAccuracy;
+    private static final double RIGOR = 0.2;
+    private static final long SEED = 1;
+}
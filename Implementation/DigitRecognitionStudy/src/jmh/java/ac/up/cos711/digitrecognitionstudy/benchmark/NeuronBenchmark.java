@@ -0,0 +1,59 @@
+package ac.up.cos711.digitrecognitionstudy.benchmark;
+
+import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.Neuron;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A single sigmoid neuron fed a dense input vector, the building block of the
+ * object-per-neuron network.
+ *
+ * @author Abrie van Aardt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuronBenchmark {
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SEED);
+        neuron = new Neuron(new Sigmoid());
+        //one weight per input and the bias
+        neuron.setWeightCount(fanIn + 1);
+        for (int i = 0; i <= fanIn; i++) {
+            neuron.setWeight(i, random.nextGaussian() * 0.1);
+        }
+        inputs = new double[fanIn];
+        for (int i = 0; i < fanIn; i++) {
+            inputs[i] = random.nextDouble() * 2 - 1;
+        }
+    }
+
+    @Benchmark
+    public double feed() throws Exception {
+        return neuron.feed(inputs);
+    }
+
+    //784 is a neuron of the first hidden layer, 30 one of the output layer
+    @Param({"784", "196", "30"})
+    public int fanIn;
+    private Neuron neuron;
+    private double[] inputs;
+    private static final long SEED = 1;
+}
@@ -2,13 +2,13 @@ package ac.up.cos711.digitrecognitionstudy.data;
 
 import ac.up.cos711.digitrecognitionstudy.data.util.IncorrectFileFormatException;
 import ac.up.cos711.digitrecognitionstudy.data.util.TrainingTestingTuple;
-import java.io.DataInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -17,6 +17,16 @@ import java.util.logging.Logger;
  * Class representing a dataset for neural network training. Target values 
  * are scaled to 0.1 and 0.9, instead of 0 and 1. Inputs are scaled to [-1, 1]
  *
+ * The patterns are stored once, in the order they were added, and never
+ * move. A dataset orders them through an array of indices into that storage,
+ * which is what shuffling, splitting and copying operate on. Datasets
+ * derived from one another share the storage but each has its own order, so
+ * shuffling one of them leaves the others as they were.
+ *
+ * Datasets loaded from file keep the raw pixels and labels of their patterns
+ * in columnar storage, see {@link ColumnarPatterns}, and scale them as they
+ * are read; other datasets store {@link Pattern} objects.
+ *
  * @author Abrie van Aardt
  */
 public class Dataset implements Iterable {
@@ -34,87 +44,126 @@ public class Dataset implements Iterable {
      */
     public static Dataset fromFile(String resourceName)
             throws FileNotFoundException, IncorrectFileFormatException, IOException {
+        return fromFile(resourceName, Precision.DOUBLE);
+    }
 
-        Dataset dataset = new Dataset();
-        ClassLoader classLoader = Dataset.class.getClassLoader();
-        DataInputStream pixelStream = new DataInputStream(classLoader.getResourceAsStream(resourceName + "-images.idx3-ubyte"));
-        DataInputStream labelStream = new DataInputStream(classLoader.getResourceAsStream(resourceName + "-labels.idx1-ubyte"));
+    /**
+     * Loads the dataset, storing the inputs of every pattern in the given
+     * precision.
+     *
+     * @param resourceName the prefix of the dataset name
+     * @param precision
+     * @return The in-memory Dataset object
+     * @throws FileNotFoundException
+     * @throws IncorrectFileFormatException
+     */
+    public static Dataset fromFile(String resourceName, Precision precision)
+            throws FileNotFoundException, IncorrectFileFormatException, IOException {
+        return fromFile(resourceName, precision, new Random(System.nanoTime()));
+    }
 
-        if (pixelStream == null || labelStream == null)
-            throw new FileNotFoundException();
-        
-        //verify file format
-        if (pixelStream.readInt() != 2051
-                || labelStream.readInt() != 2049)
-            throw new IncorrectFileFormatException();
+    /**
+     * Loads the dataset like {@link #fromFile(String, Precision)}, shuffling
+     * it with the given source of randomness, so that splits of the dataset
+     * can be reproduced with a seeded generator.
+     *
+     * The IDX files are looked up on the filesystem first and then on the
+     * classpath, and are memory mapped where possible, see {@link IdxFile}.
+     * The pixels and labels are copied out in bulk and kept as bytes, see
+     * {@link ColumnarPatterns}, so there is nothing left to decode per
+     * pattern and loading takes a single thread.
+     *
+     * @param resourceName the prefix of the dataset name
+     * @param precision
+     * @param _random
+     * @return The in-memory Dataset object
+     * @throws FileNotFoundException
+     * @throws IncorrectFileFormatException
+     */
+    public static Dataset fromFile(String resourceName, Precision precision, Random _random)
+            throws FileNotFoundException, IncorrectFileFormatException, IOException {
+
+        Dataset dataset = new Dataset();
+        dataset.precision = precision;
+        IdxFile images = IdxFile.open(resourceName + "-images.idx3-ubyte", IdxFile.IMAGES_MAGIC);
+        IdxFile labels = IdxFile.open(resourceName + "-labels.idx1-ubyte", IdxFile.LABELS_MAGIC);
 
-        int numberOfPatterns = pixelStream.readInt();
-        if (numberOfPatterns != labelStream.readInt())
+        int numberOfPatterns = images.getDimension(0);
+        if (numberOfPatterns != labels.getDimension(0))
             throw new IncorrectFileFormatException("Number of items in idx1 and idx3 fiels do not correspond.");
 
-        //demarshal the data patterns
-        int numberOfRows = pixelStream.readInt();
-        int numberOfColumns = pixelStream.readInt();
+        int numberOfRows = images.getDimension(1);
+        int numberOfColumns = images.getDimension(2);
         dataset.inputCount = numberOfRows * numberOfColumns;
         //targetCount already set using TARGET_COUNT
 
-        double[] inputs = new double[dataset.inputCount];
-        double[] targets = new double[dataset.targetCount];
-
+        //the pixels and labels are stored as they are in the files
+        byte[] pixels = new byte[numberOfPatterns * dataset.inputCount];
+        byte[] classes = new byte[numberOfPatterns];
+        images.get(0, pixels);
+        labels.get(0, classes);
+        for (byte label : classes) {
+            if ((label & 0xFF) >= dataset.targetCount)
+                throw new IncorrectFileFormatException("Label " + (label & 0xFF) + " is not a digit.");
+        }
+        dataset.data = new ColumnarPatterns(dataset.inputCount, dataset.targetCount, precision,
+                pixels, classes, numberOfPatterns);
+        dataset.order = new int[Math.max(numberOfPatterns, 1)];
         for (int i = 0; i < numberOfPatterns; i++) {
-            for (int j = 0; j < inputs.length; j++) {
-                inputs[j] = scale(pixelStream.readUnsignedByte());
-            }
-
-            digitToTargets(labelStream.readUnsignedByte(),targets);
-            
-            Pattern p = new Pattern();
-            p.setInputs(inputs);
-            p.setTargets(targets);
-            dataset.data.add(p);
+            dataset.order[i] = i;
         }
+        dataset.size = numberOfPatterns;
 
         Logger logger = Logger.getLogger(Dataset.class.getName());
         logger.log(Level.INFO, "Loaded {3} pattern(s) with {1} input(s) "
-                + "and {2} class(es) from dataset: {0}.", new Object[]{
+                + "and {2} class(es) from dataset: {0} ({4} precision).", new Object[]{
                     resourceName.substring(resourceName.lastIndexOf('/') + 1),
                     dataset.inputCount,
                     dataset.targetCount,
-                    dataset.size()
+                    dataset.size(),
+                    precision
                 });
 
-        dataset.shuffle();
+        dataset.shuffle(_random);
 
         return dataset;
     }
 
     @Override
     public Iterator<Pattern> iterator() {
-        return data.iterator();
+        return new Iterator<Pattern>() {
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public Pattern next() {
+                if (position >= size)
+                    throw new NoSuchElementException();
+                return data.get(order[position++]);
+            }
+
+            private int position;
+        };
     }
 
     /**
      * Splits the dataset into a training and testing set. This method provides
      * respective views for the training and testing dataset. Both views are
-     * backed by the same underlying dataset. trainingRatio is the proportion of
-     * the dataset that will be dedicated to training patterns.
+     * backed by the same pattern storage as this dataset, but have their own
+     * order, so that either can be shuffled without affecting the other or
+     * this dataset. trainingRatio is the proportion of the dataset that will
+     * be dedicated to training patterns.
      *
      * @param trainingRatio
      * @return TrainingTestingTuple
      */
     public TrainingTestingTuple split(double trainingRatio) {
-        Dataset training = new Dataset();
-        Dataset testing = new Dataset();
-
-        training.inputCount = inputCount;
-        training.targetCount = targetCount;
-        testing.inputCount = inputCount;
-        testing.targetCount = targetCount;
+        int trainingUpperIndex = (int) (trainingRatio * size);
 
-        int trainingUpperIndex = (int) (trainingRatio * data.size());
-
-        training.data = data.subList(0, trainingUpperIndex);
-        testing.data = data.subList(trainingUpperIndex, data.size());
+        Dataset training = view(0, trainingUpperIndex);
+        Dataset testing = view(trainingUpperIndex, size);
 
         logger.log(Level.INFO, "Using {0}"
                 + "% of the patterns for training and the remainder for "
@@ -123,17 +172,136 @@ public class Dataset implements Iterable {
         return new TrainingTestingTuple(training, testing);
     }
 
+    /**
+     * Creates a dataset with its own order over the same patterns, which are
+     * shared rather than copied, so that several simulations can shuffle and
+     * split their copies of one dataset while only reading its patterns.
+     *
+     * @return the copy
+     */
+    public Dataset copy() {
+        return view(0, size);
+    }
+
+    //a dataset over the same storage, ordered like positions [from, to) of this one
+    private Dataset view(int from, int to) {
+        Dataset view = new Dataset();
+        view.inputCount = inputCount;
+        view.targetCount = targetCount;
+        view.precision = precision;
+        view.shuffleBlockSize = shuffleBlockSize;
+        view.data = data;
+        view.order = Arrays.copyOfRange(order, from, Math.max(to, from + 1));
+        view.size = to - from;
+        return view;
+    }
+
     public Dataset shuffle() {
-        Collections.shuffle(data, random);
+        return shuffle(random);
+    }
+
+    /**
+     * Shuffles the patterns using the given source of randomness, so that the
+     * order can be reproduced with a seeded generator. Only the order of this
+     * dataset changes, the patterns themselves stay where they are stored.
+     *
+     * @param _random
+     * @return this dataset
+     * @see #setShuffleBlockSize(int)
+     */
+    public Dataset shuffle(Random _random) {
+        if (shuffleBlockSize > 1)
+            shuffleBlocks(_random);
+        else
+            shuffle(order, 0, size, _random);
+        return this;
+    }
+
+    /**
+     * Makes subsequent shuffles keep patterns that are stored close together
+     * close together: the patterns are grouped into blocks of up to blockSize
+     * patterns that are adjacent in storage, the blocks are visited in random
+     * order and the patterns of a block in random order. Iterating a shuffled
+     * dataset then reads memory in runs of blockSize patterns, instead of
+     * jumping to a random pattern every time, at the cost of less thoroughly
+     * mixed epochs. The setting is passed on to splits and copies.
+     *
+     * @param blockSize patterns per block, 1 or less for a full shuffle
+     */
+    public void setShuffleBlockSize(int blockSize) {
+        shuffleBlockSize = blockSize;
+    }
+
+    private void shuffleBlocks(Random _random) {
+        //blocks of adjacent storage, the order holds each index once
+        Arrays.sort(order, 0, size);
+
+        int blockCount = (size + shuffleBlockSize - 1) / shuffleBlockSize;
+        int[] blocks = new int[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            blocks[b] = b;
+        }
+        shuffle(blocks, 0, blockCount, _random);
+
+        int[] shuffled = new int[order.length];
+        int position = 0;
+        for (int b : blocks) {
+            int from = b * shuffleBlockSize;
+            int length = Math.min(shuffleBlockSize, size - from);
+            System.arraycopy(order, from, shuffled, position, length);
+            shuffle(shuffled, position, position + length, _random);
+            position += length;
+        }
+        order = shuffled;
+    }
+
+    //the Fisher-Yates shuffle of Collections.shuffle, on positions [from, to)
+    private static void shuffle(int[] values, int from, int to, Random _random) {
+        for (int i = to - from; i > 1; i--) {
+            int j = from + _random.nextInt(i);
+            int swap = values[from + i - 1];
+            values[from + i - 1] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    /**
+     * Rearranges the patterns so that the pattern at position i is the one
+     * previously at position order[i], e.g. to restore an order recorded
+     * earlier.
+     *
+     * @param order a permutation of the positions of the patterns
+     * @return this dataset
+     */
+    public Dataset permute(int[] _order) {
+        if (_order.length != size)
+            throw new IllegalArgumentException("The order must contain every position exactly once.");
+        int[] permuted = new int[order.length];
+        for (int i = 0; i < _order.length; i++) {
+            permuted[i] = order[_order[i]];
+        }
+        order = permuted;
         return this;
     }
 
+    /**
+     * Identifies the pattern at every position by its index in the pattern
+     * storage, which stays the same however the dataset is shuffled or
+     * permuted. Patterns themselves cannot identify a position, as a dataset
+     * with columnar storage returns a new pattern every time one is read.
+     *
+     * @return the storage index of the pattern at every position
+     */
+    public int[] getStorageOrder() {
+        return Arrays.copyOf(order, size);
+    }
+
     /**
      * 
      * @return the number of patterns occurring in this dataset.
      */
     public int size() {
-        return data.size();
+        return size;
     }
 
     public int getInputCount() {
@@ -151,50 +319,205 @@ public class Dataset implements Iterable {
     public void setTargetCount(int count){
         targetCount = count;
     }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the precision in which patterns subsequently added to the dataset
+     * store their inputs.
+     *
+     * @param _precision
+     */
+    public void setPrecision(Precision _precision) {
+        precision = _precision;
+    }
     
     public Pattern getPatternAt(int index){
-        Pattern p = data.get(index);
+        Pattern p = data.get(order[index]);
         
-        Pattern copy = new Pattern();
-        copy.setInputs(p.getInputs());
-        copy.setTargets(p.getTargets());
-        
-        return copy;
+        return Pattern.copyOf(p, p.getPrecision());
+    }
+
+    /**
+     * Reads an input of the pattern at index without copying the pattern, as
+     * {@link #getPatternAt(int)} does.
+     *
+     * @param index pattern index
+     * @param input input index
+     * @return the input
+     */
+    public double inputAt(int index, int input) {
+        if (data instanceof ColumnarPatterns)
+            return ((ColumnarPatterns) data).inputAt(order[index], input);
+        return data.get(order[index]).inputAt(input);
+    }
+
+    /**
+     * Reads a target of the pattern at index without copying the pattern.
+     *
+     * @param index pattern index
+     * @param target target index
+     * @return the target
+     */
+    public double targetAt(int index, int target) {
+        if (data instanceof ColumnarPatterns)
+            return ((ColumnarPatterns) data).targetAt(order[index], target);
+        return data.get(order[index]).targetAt(target);
     }
     
+    /**
+     * Replaces the stored pattern, which is also replaced in every dataset
+     * sharing the storage of this one. A pattern that columnar storage cannot
+     * hold moves this dataset to storage of its own, see
+     * {@link #addPattern(Pattern)}, and is then replaced in this dataset only.
+     *
+     * @param index
+     * @param p
+     */
     public void setPattern(int index, Pattern p){
-        Pattern copy = new Pattern();
-        copy.setInputs(p.getInputs());
-        copy.setTargets(p.getTargets());
-        
-        data.set(index, copy);
+        //store(p) may replace data, so it is called first
+        Pattern stored = store(p);
+        data.set(order[index], stored);
     }
     
+    /**
+     * Adds a copy of the pattern. Datasets loaded from file store their
+     * patterns as bytes, see {@link ColumnarPatterns}; adding a pattern that
+     * is not a scaled image of a digit in the same precision moves the
+     * patterns of such a dataset to object storage first, which other datasets
+     * sharing the storage keep reading from as before.
+     *
+     * @param p
+     */
     public void addPattern(Pattern p){
-        Pattern copy = new Pattern();
-        copy.setInputs(p.getInputs());
-        copy.setTargets(p.getTargets());
-        
-        data.add(copy);
+        append(store(p));
     }
 
-    private static double scale(int input) {        
-        return (input / 255.0) * 2.0 - 1.0;
+    //p as it is to be stored, moving this dataset to object storage if needed
+    private Pattern store(Pattern p) {
+        if (data instanceof ColumnarPatterns) {
+            ColumnarPatterns columns = (ColumnarPatterns) data;
+            //the storage copies the pattern into its bytes
+            if (columns.getPrecision() == precision && columns.accepts(p))
+                return p;
+            logger.log(Level.INFO, "Storing {0} pattern(s) as objects, as a pattern cannot be stored as bytes.",
+                    data.size());
+            data = new ArrayList<>(data);
+        }
+        return Pattern.copyOf(p, precision);
     }
 
-    private static double[] digitToTargets(int digit, double[] targets) {
-        for (int i = 0; i < targets.length; i++) {
-            if (digit == i)
-                targets[i] = 0.9;
-            else
-                targets[i] = 0.1;
+    //stores p and puts it last in the order
+    private void append(Pattern p) {
+        if (size == order.length)
+            order = Arrays.copyOf(order, Math.max(16, 2 * size));
+        order[size++] = data.size();
+        data.add(p);
+    }
+
+    /**
+     * Copies the inputs of the patterns in the range [from, to) into
+     * destination as a row-major matrix, with one row of
+     * {@link #getInputCount()} elements per pattern. This is used to gather
+     * blocks of patterns for batched classification.
+     *
+     * @param from index of the first pattern (inclusive)
+     * @param to index of the last pattern (exclusive)
+     * @param destination
+     */
+    public void copyInputs(int from, int to, double[] destination) {
+        for (int i = from, offset = 0; i < to; i++, offset += inputCount) {
+            copyStoredInputs(order[i], destination, offset);
+        }
+    }
+
+    /**
+     * Copies the targets of the patterns in the range [from, to) into
+     * destination as a row-major matrix, with one row of
+     * {@link #getTargetCount()} elements per pattern.
+     *
+     * @param from index of the first pattern (inclusive)
+     * @param to index of the last pattern (exclusive)
+     * @param destination
+     */
+    public void copyTargets(int from, int to, double[] destination) {
+        for (int i = from, offset = 0; i < to; i++, offset += targetCount) {
+            copyStoredTargets(order[i], destination, offset);
+        }
+    }
+
+    /**
+     * Copies the inputs of the patterns at indices[from] to indices[to - 1]
+     * into destination as a row-major matrix, like
+     * {@link #copyInputs(int, int, double[])} does for a contiguous range.
+     * This is used to gather random samples of patterns.
+     *
+     * @param indices pattern indices
+     * @param from first position in indices (inclusive)
+     * @param to last position in indices (exclusive)
+     * @param destination
+     */
+    public void copyInputs(int[] indices, int from, int to, double[] destination) {
+        for (int i = from, offset = 0; i < to; i++, offset += inputCount) {
+            copyStoredInputs(order[indices[i]], destination, offset);
         }
-        return targets;
     }
 
+    /**
+     * Copies the targets of the patterns at indices[from] to indices[to - 1]
+     * into destination as a row-major matrix.
+     *
+     * @param indices pattern indices
+     * @param from first position in indices (inclusive)
+     * @param to last position in indices (exclusive)
+     * @param destination
+     */
+    public void copyTargets(int[] indices, int from, int to, double[] destination) {
+        for (int i = from, offset = 0; i < to; i++, offset += targetCount) {
+            copyStoredTargets(order[indices[i]], destination, offset);
+        }
+    }
+
+    //reads columnar storage directly, rather than through a backed pattern
+    private void copyStoredInputs(int stored, double[] destination, int offset) {
+        if (data instanceof ColumnarPatterns)
+            ((ColumnarPatterns) data).copyInputsInto(stored, destination, offset);
+        else
+            data.get(stored).copyInputsInto(destination, offset);
+    }
+
+    private void copyStoredTargets(int stored, double[] destination, int offset) {
+        if (data instanceof ColumnarPatterns)
+            ((ColumnarPatterns) data).copyTargetsInto(stored, destination, offset);
+        else
+            data.get(stored).copyTargetsInto(destination, offset);
+    }
+
+    /**
+     * Maps a raw pixel intensity in [0, 255] to the input range [-1, 1] of the
+     * patterns.
+     *
+     * @param input pixel intensity
+     * @return scaled input
+     */
+    public static double scale(int input) {
+        return (input / 255.0) * 2.0 - 1.0;
+    }
+
+    //pattern storage, shared with splits and copies and only ever appended to
     private List<Pattern> data = new ArrayList<>();
+    //order[i] is the storage index of the i-th pattern of this dataset
+    private int[] order = new int[16];
+    private int size;
+    //see setShuffleBlockSize
+    private int shuffleBlockSize;
     private int inputCount;
     private int targetCount = 10;//10 digits to classify
+    private Precision precision = Precision.DOUBLE;
     private Random random = new Random(System.nanoTime());
     private Logger logger = Logger.getLogger(getClass().getName());
+    static final double TARGET_ON = 0.9;
+    static final double TARGET_OFF = 0.1;
 }
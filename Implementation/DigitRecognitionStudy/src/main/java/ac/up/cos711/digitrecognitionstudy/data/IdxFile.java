@@ -0,0 +1,142 @@
+package ac.up.cos711.digitrecognitionstudy.data;
+
+import ac.up.cos711.digitrecognitionstudy.data.util.IncorrectFileFormatException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An IDX file of unsigned bytes, such as the MNIST images and labels. The
+ * header is a magic number followed by the size of every dimension, all big
+ * endian ints, after which the bytes follow in row-major order.
+ *
+ * A file on the filesystem, or a classpath resource that is one, is memory
+ * mapped; other classpath resources, such as those in a jar, are read into
+ * memory in bulk. Either way the bytes are read with absolute gets, so
+ * several threads may read them at once.
+ *
+ * @author Abrie van Aardt
+ */
+final class IdxFile {
+
+    /**
+     * Opens the IDX file at the given filesystem path or, if there is none,
+     * the classpath resource of that name.
+     *
+     * @param name
+     * @param magic the expected magic number, which also fixes the number of
+     * dimensions
+     * @return the file
+     * @throws FileNotFoundException if neither exists
+     * @throws IncorrectFileFormatException if the header does not match
+     * @throws IOException
+     */
+    static IdxFile open(String name, int magic)
+            throws FileNotFoundException, IncorrectFileFormatException, IOException {
+        ByteBuffer buffer;
+        File file = new File(name);
+        URL resource;
+        if (file.isFile())
+            buffer = map(file);
+        else if ((resource = IdxFile.class.getClassLoader().getResource(name)) == null)
+            throw new FileNotFoundException(name);
+        else if ("file".equals(resource.getProtocol()))
+            buffer = map(toFile(resource));
+        else
+            buffer = read(resource);
+
+        //the low byte of the magic number is the number of dimensions
+        int dimensionCount = magic & 0xFF;
+        int headerSize = 4 * (1 + dimensionCount);
+        if (buffer.limit() < headerSize || buffer.getInt(0) != magic)
+            throw new IncorrectFileFormatException(name + " is not an IDX file with magic number " + magic + ".");
+
+        int[] dimensions = new int[dimensionCount];
+        long length = 1;
+        for (int i = 0; i < dimensionCount; i++) {
+            dimensions[i] = buffer.getInt(4 * (1 + i));
+            length *= dimensions[i];
+        }
+        if (buffer.limit() - headerSize < length)
+            throw new IncorrectFileFormatException(name + " is shorter than its header states.");
+
+        return new IdxFile(buffer, headerSize, dimensions);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+                FileChannel channel = input.getChannel()) {
+            //the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static File toFile(URL resource) throws IOException {
+        try {
+            return new File(resource.toURI());
+        }
+        catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Cannot resolve " + resource, e);
+        }
+    }
+
+    private static ByteBuffer read(URL resource) throws IOException {
+        byte[] bytes = new byte[READ_BUFFER_SIZE];
+        int length = 0;
+        try (InputStream input = resource.openStream()) {
+            int read;
+            while ((read = input.read(bytes, length, bytes.length - length)) != -1) {
+                length += read;
+                if (length == bytes.length)
+                    bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    private IdxFile(ByteBuffer _buffer, int _offset, int[] _dimensions) {
+        buffer = _buffer;
+        offset = _offset;
+        dimensions = _dimensions;
+    }
+
+    int getDimension(int index) {
+        return dimensions[index];
+    }
+
+    /**
+     * @param index
+     * @return the unsigned byte at index of the data, after the header
+     */
+    int get(int index) {
+        return buffer.get(offset + index) & 0xFF;
+    }
+
+    /**
+     * Copies destination.length bytes of the data, starting at index, into
+     * destination in bulk.
+     *
+     * @param index
+     * @param destination
+     */
+    void get(int index, byte[] destination) {
+        //a duplicate has its own position, so threads do not interfere
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + index);
+        view.get(destination);
+    }
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int[] dimensions;
+    static final int IMAGES_MAGIC = 2051;
+    static final int LABELS_MAGIC = 2049;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+}
@@ -4,28 +4,237 @@ import java.util.Arrays;
 
 /**
  * Class that represents a single line of the dataset (a data pattern). All
- * methods of this class use deep copying for proper composition.
+ * methods of this class use deep copying for proper composition. Inputs are
+ * stored in either double or single precision, depending on which setter was
+ * used last; getInputs() always returns doubles.
+ *
+ * Code that reads every pattern of a dataset, such as training, should use
+ * {@link #inputAt(int)}, {@link #targetAt(int)} or the copyInto methods with
+ * buffers of its own instead of the getters, which allocate a new array on
+ * every call.
+ *
+ * A pattern read from a dataset with columnar storage holds no inputs or
+ * targets of its own but reads them from its row of the storage, see
+ * {@link ColumnarPatterns}. It copies them out the first time it is
+ * modified, so the storage itself is never changed through a pattern.
  *
  * @author Abrie van Aardt
  */
 public class Pattern {
 
     public double[] getInputs() {
+        if (store != null) {
+            double[] copy = new double[store.getInputCount()];
+            store.copyInputsInto(row, copy, 0);
+            return copy;
+        }
+        if (singleInputs != null) {
+            double[] copy = new double[singleInputs.length];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = singleInputs[i];
+            }
+            return copy;
+        }
         return Arrays.copyOf(inputs, inputs.length);
     }
 
     public double[] getTargets() {
+        if (store != null) {
+            double[] copy = new double[store.getTargetCount()];
+            store.copyTargetsInto(row, copy, 0);
+            return copy;
+        }
         return Arrays.copyOf(targets, targets.length);
     }
 
     public void setInputs(double[] _inputs) {
+        unback();
         inputs = Arrays.copyOf(_inputs, _inputs.length);
+        singleInputs = null;
+        sparseInputs = null;
+    }
+
+    /**
+     * Stores the inputs in single precision, halving their memory footprint.
+     *
+     * @param _inputs
+     */
+    public void setInputs(float[] _inputs) {
+        unback();
+        singleInputs = Arrays.copyOf(_inputs, _inputs.length);
+        inputs = null;
+        sparseInputs = null;
     }
 
     public void setTargets(double[] _targets) {
+        unback();
         targets = Arrays.copyOf(_targets, _targets.length);
     }
 
+    /**
+     * Encodes the inputs relative to background, see {@link SparseInputs}.
+     * The encoding is computed on first use and kept with the pattern until
+     * its inputs change; since it is immutable, no copy is made.
+     *
+     * @param background
+     * @return sparse encoding of the inputs
+     */
+    public SparseInputs getSparseInputs(double background) {
+        if (store != null)
+            return store.getSparseInputs(row, background);
+        SparseInputs encoding = sparseInputs;
+        if (encoding == null || Double.compare(encoding.getBackground(), background) != 0) {
+            encoding = SparseInputs.encode(getInputs(), background);
+            sparseInputs = encoding;
+        }
+        return encoding;
+    }
+
+    public Precision getPrecision() {
+        if (store != null)
+            return store.getPrecision();
+        return singleInputs != null ? Precision.SINGLE : Precision.DOUBLE;
+    }
+
+    /**
+     * Reads a single input without copying the inputs.
+     *
+     * @param index
+     * @return the input at index
+     */
+    public double inputAt(int index) {
+        if (store != null)
+            return store.inputAt(row, index);
+        return singleInputs != null ? singleInputs[index] : inputs[index];
+    }
+
+    /**
+     * Reads a single target without copying the targets.
+     *
+     * @param index
+     * @return the target at index
+     */
+    public double targetAt(int index) {
+        if (store != null)
+            return store.targetAt(row, index);
+        return targets[index];
+    }
+
+    public int getInputCount() {
+        if (store != null)
+            return store.getInputCount();
+        return singleInputs != null ? singleInputs.length : inputs.length;
+    }
+
+    public int getTargetCount() {
+        if (store != null)
+            return store.getTargetCount();
+        return targets.length;
+    }
+
+    /**
+     * Copies the inputs into destination without an intermediate array, so
+     * that a buffer can be reused for every pattern.
+     *
+     * @param destination receives {@link #getInputCount()} inputs
+     * @param offset index in destination of the first input
+     */
+    public void copyInputsInto(double[] destination, int offset) {
+        if (store != null) {
+            store.copyInputsInto(row, destination, offset);
+        }
+        else if (singleInputs != null) {
+            for (int i = 0; i < singleInputs.length; i++) {
+                destination[offset + i] = singleInputs[i];
+            }
+        }
+        else {
+            System.arraycopy(inputs, 0, destination, offset, inputs.length);
+        }
+    }
+
+    /**
+     * Copies the targets into destination without an intermediate array.
+     *
+     * @param destination receives {@link #getTargetCount()} targets
+     * @param offset index in destination of the first target
+     */
+    public void copyTargetsInto(double[] destination, int offset) {
+        if (store != null)
+            store.copyTargetsInto(row, destination, offset);
+        else
+            System.arraycopy(targets, 0, destination, offset, targets.length);
+    }
+
+    //copy of p with its inputs stored in the given precision
+    static Pattern copyOf(Pattern p, Precision precision) {
+        //backed patterns never change their row, so they can be shared
+        if (p.store != null && p.store.getPrecision() == precision)
+            return backedBy(p.store, p.row);
+
+        Pattern copy = new Pattern();
+        if (precision == Precision.SINGLE) {
+            float[] singleCopy = new float[p.getInputCount()];
+            if (p.singleInputs != null) {
+                System.arraycopy(p.singleInputs, 0, singleCopy, 0, singleCopy.length);
+            }
+            else {
+                for (int i = 0; i < singleCopy.length; i++) {
+                    singleCopy[i] = (float) p.inputAt(i);
+                }
+            }
+            copy.singleInputs = singleCopy;
+        }
+        else {
+            copy.inputs = p.getInputs();
+        }
+        copy.targets = p.getTargets();
+        return copy;
+    }
+
+    //a pattern that reads its inputs and targets from a row of store
+    static Pattern backedBy(ColumnarPatterns _store, int _row) {
+        Pattern p = new Pattern();
+        p.store = _store;
+        p.row = _row;
+        return p;
+    }
+
+    boolean isBackedBy(ColumnarPatterns _store) {
+        return store == _store;
+    }
+
+    //this pattern with its own copy of the inputs and targets
+    Pattern detach() {
+        unback();
+        return this;
+    }
+
+    private void unback() {
+        if (store == null)
+            return;
+        ColumnarPatterns backing = store;
+        store = null;
+        targets = new double[backing.getTargetCount()];
+        backing.copyTargetsInto(row, targets, 0);
+        if (backing.getPrecision() == Precision.SINGLE) {
+            singleInputs = new float[backing.getInputCount()];
+            for (int i = 0; i < singleInputs.length; i++) {
+                singleInputs[i] = (float) backing.inputAt(row, i);
+            }
+        }
+        else {
+            inputs = new double[backing.getInputCount()];
+            backing.copyInputsInto(row, inputs, 0);
+        }
+    }
+
     private double[] inputs;
+    private float[] singleInputs;
     private double[] targets;
+    //cached by getSparseInputs, cleared when the inputs change
+    private SparseInputs sparseInputs;
+    //set for a pattern backed by columnar storage, see backedBy
+    private ColumnarPatterns store;
+    private int row;
 }
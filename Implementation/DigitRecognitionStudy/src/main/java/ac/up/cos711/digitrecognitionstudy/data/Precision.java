@@ -0,0 +1,11 @@
+package ac.up.cos711.digitrecognitionstudy.data;
+
+/**
+ * Floating point precision used to store data patterns and network weights.
+ * SINGLE halves the memory and bandwidth needed compared to DOUBLE.
+ *
+ * @author Abrie van Aardt
+ */
+public enum Precision {
+    SINGLE, DOUBLE
+}
@@ -1,6 +1,7 @@
 package ac.up.cos711.digitrecognitionstudy.data;
 
 import ac.up.cos711.digitrecognitionstudy.data.util.IncompatibleBlockSizeException;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -28,22 +29,23 @@ public class Preprocessing {
         int numBlocks = (int) Math.pow(blocksInDimension, 2);
         reducedDataset.setInputCount(numBlocks);
         reducedDataset.setTargetCount(dataset.getTargetCount());
+        reducedDataset.setPrecision(dataset.getPrecision());
 
         double[] blocks = new double[numBlocks];
+        double[] targets = new double[dataset.getTargetCount()];
         int blockIndex = 0;
         int rowIndex = 0;
-        double[] inputs;
         Iterator<Pattern> patterns = dataset.iterator();
 
         while (patterns.hasNext()) {
             Pattern p = patterns.next();
-            inputs = p.getInputs();
 
-            blocks[0] = inputs[0];
+            //the inputs are read in place rather than copied
+            blocks[0] = p.inputAt(0);
             blockIndex = 0;
             rowIndex = 0;
 
-            for (int i = 1; i < inputs.length; i++) {
+            for (int i = 1; i < p.getInputCount(); i++) {
                 if (i % blockWidthHeight == 0) {//reached end of block (horizontally)
                     if (i % imageWidthHeight == 0) {//reached end of row
                         ++rowIndex;
@@ -53,7 +55,7 @@ public class Preprocessing {
                         ++blockIndex;
                 }
 
-                blocks[blockIndex] += inputs[i];
+                blocks[blockIndex] += p.inputAt(i);
             }
 
             //get average for each block
@@ -64,9 +66,10 @@ public class Preprocessing {
             //add blocks to the reduced dataset
             Pattern reducedPattern = new Pattern();
             reducedPattern.setInputs(blocks);
-            reducedPattern.setTargets(p.getTargets());
+            p.copyTargetsInto(targets, 0);
+            reducedPattern.setTargets(targets);
             reducedDataset.addPattern(reducedPattern);
-            blocks = new double[numBlocks];
+            Arrays.fill(blocks, 0);
 
         }
         return reducedDataset;
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  *
@@ -60,4 +61,28 @@ public class Results {
             }
         }
     }
+
+    /**
+     * Replaces the file with the relative path experimentName/resultType.csv
+     * by a table with the given header and rows.
+     *
+     * @param experimentName
+     * @param resultType
+     * @param header comma separated column names
+     * @param rows comma separated values
+     * @throws IOException
+     */
+    public static void writeTable(String experimentName, String resultType, String header, List<String> rows)
+            throws IOException {
+        File file = new File(experimentName + "/" + resultType + ".csv");
+        file.getParentFile().mkdirs();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file, false))) {
+            writer.write(header);
+            writer.newLine();
+            for (String row : rows) {
+                writer.write(row);
+                writer.newLine();
+            }
+        }
+    }
 }
@@ -0,0 +1,281 @@
+package ac.up.cos711.digitrecognitionstudy.experiment;
+
+import ac.up.cos711.digitrecognitionstudy.data.Results;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.BackPropagation;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.IFFNeuralNetTrainer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Searches the grid of configurations spanned by the swept entries of a study
+ * config with successive halving. Every configuration trains for
+ * sweepMinEpochs epochs, after which only the best 1/sweepReduction by
+ * validation error continue, for sweepReduction times as many epochs in
+ * total, and so on until maxEpoch is reached or a single configuration is
+ * left, which then trains up to maxEpoch. Configurations resume from the
+ * checkpoint of their previous round rather than starting over, so poor
+ * configurations cost a few epochs each and the budget goes to the
+ * survivors.
+ *
+ * The configurations of a round train concurrently. The ranked results are
+ * written to experimentName/Sweep.csv, best first.
+ *
+ * @author Abrie van Aardt
+ */
+public class HyperparameterSweep {
+
+    /**
+     * @param _config the study config with at least one swept entry
+     * @param _parallelism maximum number of configurations that train at the
+     * same time
+     */
+    public HyperparameterSweep(StudyConfig _config, int _parallelism) {
+        if (_config.sweep.isEmpty())
+            throw new IllegalArgumentException("The study config sweeps no entries.");
+        config = _config;
+        parallelism = Math.max(_parallelism, 1);
+        MIN_EPOCHS = Math.max(_config.sweepMinEpochs, 1);
+        REDUCTION = Math.max(_config.sweepReduction, 2);
+    }
+
+    /**
+     * Runs the sweep and writes the ranked results. If any configuration
+     * fails to train, the sweep stops once the rest of its round has
+     * finished and writes no ranking, as the ranking would compare the
+     * configurations with a failure that says nothing about them.
+     *
+     * @param experimentName
+     * @param trial trains a configuration for a round
+     * @throws IOException if a configuration fails to train or the results
+     * cannot be written
+     */
+    public void run(String experimentName, ISweepTrial trial) throws IOException {
+        List<Candidate> candidates = grid(experimentName);
+        List<Candidate> survivors = new ArrayList<>(candidates);
+        int maxEpoch = Math.max(config.maxEpoch, 1);
+        int budget = Math.min(MIN_EPOCHS, maxEpoch);
+        long trainedEpochs = 0;
+
+        Logger.getLogger(getClass().getName())
+                .log(Level.INFO, "Sweeping {0} configuration(s).", candidates.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, candidates.size()));
+        try {
+            while (true) {
+                trainedEpochs += trainRound(pool, survivors, budget, trial);
+                Collections.sort(survivors, BY_VALIDATION_ERROR);
+
+                Logger.getLogger(getClass().getName())
+                        .log(Level.INFO, "Trained {0} configuration(s) for {1} epoch(s), best E_v {2} for {3}.",
+                                new Object[]{survivors.size(), budget,
+                                    survivors.get(0).validationError, survivors.get(0).label});
+
+                if (budget >= maxEpoch)
+                    break;
+                survivors = new ArrayList<>(survivors.subList(0, Math.max(1, survivors.size() / REDUCTION)));
+                //the last configuration standing gets the rest of the budget
+                budget = survivors.size() == 1
+                        ? maxEpoch
+                        : (int) Math.min((long) budget * REDUCTION, maxEpoch);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        Logger.getLogger(getClass().getName())
+                .log(Level.INFO, "The sweep trained for {0} epoch(s), the full grid would need up to {1}.",
+                        new Object[]{trainedEpochs, (long) candidates.size() * maxEpoch});
+
+        writeRanking(experimentName, candidates);
+    }
+
+    /**
+     * Trains the candidates up to budget epochs in parallel.
+     *
+     * @return the number of epochs trained
+     * @throws IOException if a candidate fails to train, thrown once every
+     * candidate of the round has finished
+     */
+    private long trainRound(ExecutorService pool, List<Candidate> candidates, final int budget,
+            final ISweepTrial trial) throws InterruptedException, IOException {
+        List<Future<?>> round = new ArrayList<>(candidates.size());
+        long epochs = 0;
+        for (final Candidate candidate : candidates) {
+            epochs -= candidate.epochs;
+            round.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    IFFNeuralNetTrainer trainer = trial.train(
+                            candidate.config.with("maxEpoch", Integer.toString(budget)), candidate.checkpoint);
+                    candidate.budget = budget;
+                    //training may have stopped before the budget, in this round or an earlier one
+                    candidate.epochs = budget;
+                    candidate.trainingError = trainer.getTrainingError();
+                    candidate.validationError = trainer.getValidationError();
+                    if (trainer instanceof BackPropagation) {
+                        candidate.epochs = ((BackPropagation) trainer).getEpoch();
+                        candidate.timeToTarget = ((BackPropagation) trainer).getTimeToTarget();
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < round.size(); i++) {
+            try {
+                round.get(i).get();
+            }
+            catch (ExecutionException e) {
+                //the others still train, so wait for them before failing the sweep
+                Candidate candidate = candidates.get(i);
+                if (failure == null)
+                    failure = new IOException("Training " + candidate.label + " failed.", e.getCause());
+                else
+                    Logger.getLogger(getClass().getName())
+                            .log(Level.SEVERE, "Training " + candidate.label + " failed.", e.getCause());
+            }
+        }
+        if (failure != null)
+            throw failure;
+        for (Candidate candidate : candidates) {
+            epochs += candidate.epochs;
+        }
+        return epochs;
+    }
+
+    /**
+     * Every combination of the swept values, applied to the study config.
+     */
+    private List<Candidate> grid(String experimentName) {
+        List<StudyConfig> configs = new ArrayList<>();
+        List<Map<String, String>> values = new ArrayList<>();
+        configs.add(config);
+        values.add(new LinkedHashMap<String, String>());
+
+        for (Map.Entry<String, String[]> entry : config.sweep.entrySet()) {
+            List<StudyConfig> expanded = new ArrayList<>();
+            List<Map<String, String>> expandedValues = new ArrayList<>();
+            for (int i = 0; i < configs.size(); i++) {
+                for (String value : entry.getValue()) {
+                    Map<String, String> assignment = new LinkedHashMap<>(values.get(i));
+                    assignment.put(entry.getKey(), value);
+                    expanded.add(configs.get(i).with(entry.getKey(), value));
+                    expandedValues.add(assignment);
+                }
+            }
+            configs = expanded;
+            values = expandedValues;
+        }
+
+        List<Candidate> candidates = new ArrayList<>(configs.size());
+        for (int i = 0; i < configs.size(); i++) {
+            File checkpoint = new File(CHECKPOINT_DIRECTORY, experimentName + "_sweep_" + (i + 1) + ".ckpt");
+            //a checkpoint left by an earlier sweep would be resumed
+            if (checkpoint.exists() && !checkpoint.delete())
+                throw new IllegalStateException("Cannot delete " + checkpoint);
+            candidates.add(new Candidate(configs.get(i), values.get(i), checkpoint));
+        }
+        return candidates;
+    }
+
+    private void writeRanking(String experimentName, List<Candidate> candidates) throws IOException {
+        List<Candidate> ranking = new ArrayList<>(candidates);
+        Collections.sort(ranking, BY_RANK);
+
+        StringBuilder header = new StringBuilder("rank");
+        for (String key : config.sweep.keySet()) {
+            header.append(',').append(key);
+        }
+        header.append(",epochs,E_t,E_v,T_target");
+
+        List<String> rows = new ArrayList<>(ranking.size());
+        for (int i = 0; i < ranking.size(); i++) {
+            Candidate candidate = ranking.get(i);
+            StringBuilder row = new StringBuilder().append(i + 1);
+            for (String key : config.sweep.keySet()) {
+                row.append(',').append(candidate.values.get(key));
+            }
+            row.append(',').append(candidate.epochs)
+                    .append(',').append(candidate.trainingError)
+                    .append(',').append(candidate.validationError)
+                    .append(',').append(candidate.timeToTarget);
+            rows.add(row.toString());
+
+            Logger.getLogger(getClass().getName())
+                    .log(Level.INFO, "{0}. {1}: E_v {2} after {3} epoch(s)",
+                            new Object[]{i + 1, candidate.label, candidate.validationError, candidate.epochs});
+        }
+
+        Results.writeTable(experimentName, "Sweep", header.toString(), rows);
+    }
+
+    private static class Candidate {
+
+        Candidate(StudyConfig _config, Map<String, String> _values, File _checkpoint) {
+            config = _config;
+            values = _values;
+            checkpoint = _checkpoint;
+
+            StringBuilder assignments = new StringBuilder();
+            for (Map.Entry<String, String> value : _values.entrySet()) {
+                if (assignments.length() > 0)
+                    assignments.append(' ');
+                assignments.append(value.getKey()).append('=').append(value.getValue());
+            }
+            label = assignments.toString();
+        }
+
+        final StudyConfig config;
+        //swept entry to value
+        final Map<String, String> values;
+        final String label;
+        final File checkpoint;
+        //epoch budget of the last round the configuration survived to
+        int budget;
+        //epochs actually trained, at most budget
+        int epochs;
+        double trainingError = Double.NaN;
+        double validationError = Double.POSITIVE_INFINITY;
+        double timeToTarget = Double.NaN;
+    }
+
+    private final StudyConfig config;
+    private final int parallelism;
+    private final int MIN_EPOCHS;
+    private final int REDUCTION;
+    private static final String CHECKPOINT_DIRECTORY = "checkpoints";
+    private static final Comparator<Candidate> BY_VALIDATION_ERROR = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            return Double.compare(a.validationError, b.validationError);
+        }
+    };
+    //configurations that survived longer rank higher, then by validation error
+    private static final Comparator<Candidate> BY_RANK = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            if (a.budget != b.budget)
+                return Integer.compare(b.budget, a.budget);
+            return Double.compare(a.validationError, b.validationError);
+        }
+    };
+}
@@ -0,0 +1,24 @@
+package ac.up.cos711.digitrecognitionstudy.experiment;
+
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.IFFNeuralNetTrainer;
+import java.io.File;
+
+/**
+ * Trains one configuration of a {@link HyperparameterSweep} for a round.
+ *
+ * @author Abrie van Aardt
+ */
+public interface ISweepTrial {
+
+    /**
+     * Trains a network with the given configuration for at most
+     * candidate.maxEpoch epochs in total, resuming from the checkpoint the
+     * previous round left in file, if any, and leaving one there for the next.
+     *
+     * @param candidate
+     * @param checkpoint
+     * @return the trainer, from which the errors are read
+     * @throws Exception
+     */
+    public IFFNeuralNetTrainer train(StudyConfig candidate, File checkpoint) throws Exception;
+}
@@ -0,0 +1,97 @@
+package ac.up.cos711.digitrecognitionstudy.experiment;
+
+import ac.up.cos711.digitrecognitionstudy.data.Results;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.TrainingCheckpoint;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.TrainingStats;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The results of a single simulation, held in memory until they can be
+ * written to disk, so that simulations which finish out of order still append
+ * their results in simulation order.
+ *
+ * @author Abrie van Aardt
+ */
+public class SimulationResult {
+
+    public SimulationResult(int _simulation) {
+        simulation = _simulation;
+    }
+
+    public void add(String resultType, double value) {
+        resultTypes.add(resultType);
+        values.add(new double[]{value});
+        scalars.add(true);
+    }
+
+    public void add(String resultType, double[] _values) {
+        resultTypes.add(resultType);
+        values.add(_values);
+        scalars.add(false);
+    }
+
+    /**
+     * @param _stats the stats of the simulation's training, which also
+     * record the time taken to write the results, or null; see
+     * {@link #close()}
+     */
+    public void setStats(TrainingStats _stats) {
+        stats = _stats;
+    }
+
+    /**
+     * @param _checkpoint the checkpoint of the simulation's training, which
+     * is marked as recorded once the results are written, or null
+     */
+    public void setCheckpoint(File _checkpoint) {
+        checkpoint = _checkpoint;
+    }
+
+    /**
+     * Appends the results in the order they were added, see
+     * {@link Results#writeToFile(String, String, double)}. The checkpoint of
+     * the simulation, if any, is then marked as recorded, so that the
+     * simulation is not run again.
+     *
+     * @param experimentName
+     * @throws IOException
+     */
+    public void writeToFile(String experimentName) throws IOException {
+        long start = stats != null ? System.nanoTime() : 0;
+        for (int i = 0; i < resultTypes.size(); i++) {
+            if (scalars.get(i))
+                Results.writeToFile(experimentName, resultTypes.get(i), values.get(i)[0]);
+            else
+                Results.writeToFile(experimentName, resultTypes.get(i), values.get(i));
+        }
+        if (stats != null)
+            stats.record(TrainingStats.Phase.RESULTS_IO, System.nanoTime() - start);
+        //training may not have written a checkpoint, see BackPropagation.setCheckpoint
+        if (checkpoint != null && checkpoint.exists())
+            TrainingCheckpoint.markRecorded(checkpoint);
+    }
+
+    /**
+     * Closes the stats of the simulation, whether or not its results were
+     * written, see {@link TrainingStats#close()}.
+     */
+    public void close() {
+        if (stats != null)
+            stats.close();
+    }
+
+    public int getSimulation() {
+        return simulation;
+    }
+
+    private final int simulation;
+    private final List<String> resultTypes = new ArrayList<>();
+    private final List<double[]> values = new ArrayList<>();
+    //true if the value is written to a .csv file, false for a .dat file
+    private final List<Boolean> scalars = new ArrayList<>();
+    private TrainingStats stats;
+    private File checkpoint;
+}
@@ -0,0 +1,139 @@
+package ac.up.cos711.digitrecognitionstudy.experiment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the independent simulations of an experiment on a bounded thread pool
+ * and appends their results in simulation order, as soon as every earlier
+ * simulation has finished. Simulations are expected to share read-only data,
+ * such as the patterns of a dataset, and to own everything they modify.
+ *
+ * @author Abrie van Aardt
+ */
+public class SimulationRunner {
+
+    /**
+     * @param _parallelism maximum number of simulations that run at the same
+     * time
+     */
+    public SimulationRunner(int _parallelism) {
+        if (_parallelism < 1)
+            throw new IllegalArgumentException("At least one simulation must be able to run.");
+        parallelism = _parallelism;
+    }
+
+    /**
+     * The number of simulations that fit the available processors, given the
+     * threads each simulation trains with, and the free heap, given an
+     * estimate of the memory each simulation needs beyond the shared data.
+     *
+     * @param threadsPerSimulation
+     * @param bytesPerSimulation
+     * @return at least one
+     */
+    public static int defaultParallelism(int threadsPerSimulation, long bytesPerSimulation) {
+        Runtime runtime = Runtime.getRuntime();
+        int byCores = runtime.availableProcessors() / Math.max(threadsPerSimulation, 1);
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long byMemory = freeMemory / Math.max(bytesPerSimulation, 1);
+        return (int) Math.max(1, Math.min(byCores, byMemory));
+    }
+
+    /**
+     * Runs the simulations and writes the result of each to the experiment's
+     * result files. A simulation that returns null, e.g. because it had
+     * already completed, writes nothing. If a simulation fails, the
+     * simulations that have not started are cancelled and the results of the
+     * ones after it are discarded, as the results files would otherwise have
+     * a gap. The simulations that are running at the time still finish
+     * before this returns, and every result that was returned is closed,
+     * written or not.
+     *
+     * @param experimentName
+     * @param simulations in simulation order
+     * @throws IOException if the results cannot be written
+     */
+    public void run(String experimentName, List<Callable<SimulationResult>> simulations) throws IOException {
+        int threads = Math.min(parallelism, Math.max(simulations.size(), 1));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        Logger.getLogger(getClass().getName())
+                .log(Level.INFO, "Running up to {0} simulation(s) at a time.", threads);
+
+        List<Future<SimulationResult>> results = new ArrayList<>(simulations.size());
+        try {
+            for (Callable<SimulationResult> simulation : simulations) {
+                results.add(pool.submit(simulation));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                SimulationResult result;
+                try {
+                    result = results.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    Logger.getLogger(getClass().getName())
+                            .log(Level.SEVERE, "Simulation " + (i + 1) + " failed.", e.getCause());
+                    return;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (result != null)
+                    result.writeToFile(experimentName);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            //training does not respond to interrupts, so simulations that
+            //are running finish before their results can be closed
+            awaitTermination(pool);
+            for (Future<SimulationResult> result : results) {
+                close(result);
+            }
+        }
+    }
+
+    //waits even if interrupted, as run may already have been, and lets the
+    //caller see the interrupt afterwards
+    private static void awaitTermination(ExecutorService pool) {
+        boolean interrupted = Thread.interrupted();
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    //closes the result of a finished simulation, see SimulationResult.close
+    private static void close(Future<SimulationResult> result) {
+        if (!result.isDone() || result.isCancelled())
+            return;
+        try {
+            SimulationResult finished = result.get();
+            if (finished != null)
+                finished.close();
+        }
+        catch (ExecutionException | InterruptedException e) {
+            //the simulation failed and closed its own stats, see Study.simulate
+        }
+    }
+
+    private final int parallelism;
+}
@@ -1,25 +1,48 @@
 package ac.up.cos711.digitrecognitionstudy.experiment;
 
 import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
 import ac.up.cos711.digitrecognitionstudy.data.Preprocessing;
-import ac.up.cos711.digitrecognitionstudy.data.Results;
 import ac.up.cos711.digitrecognitionstudy.data.util.IncompatibleBlockSizeException;
 import ac.up.cos711.digitrecognitionstudy.data.util.IncorrectFileFormatException;
 import ac.up.cos711.digitrecognitionstudy.data.util.StudyLogFormatter;
 import ac.up.cos711.digitrecognitionstudy.data.util.TrainingTestingTuple;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
 import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.PiecewiseLinearSigmoid;
 import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
 import ac.up.cos711.digitrecognitionstudy.function.util.NotAFunctionException;
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.CompiledFFNeuralNet;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.QuantizedFFNeuralNet;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.ClassificationAccuracy;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.DefaultNetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.SampledNetworkError;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.training.BackPropagation;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.HogwildBackPropagation;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.IFFNeuralNetTrainer;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.TrainingStats;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.Adam;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.GradientDescent;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.IWeightUpdateRule;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.Momentum;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.NesterovMomentum;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetBuilder;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.ThresholdOutOfBoundsException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.ZeroNeuronException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
@@ -64,7 +87,6 @@ public class Study {
 
         String expName = "Exp_All_Inputs";
         StudyConfig config;
-        BackPropagation backPropagation;
 
         try {
             config = StudyConfig.fromFile(expName);
@@ -73,54 +95,14 @@ public class Study {
                     .getLogger(Study.class.getName())
                     .log(Level.INFO, "Doing {0} simulation(s)", config.simulations);
 
-            for (int i = 1; i <= config.simulations; i++) {
+            //loaded once and shared by all simulations, which only read the patterns
+            Dataset[] datasets = loadDatasets(config);
+            Dataset dataset = datasets[0];
+            Dataset generalisationset = datasets[1];
 
-                Logger
-                        .getLogger(Study.class.getName())
-                        .log(Level.INFO, "Starting simulation {0}.", i);
-
-                TrainingTestingTuple trainingValidationSets = Dataset
-                        .fromFile("ac/up/cos711/digitrecognitionstudy/data/train")
-                        .split(0.8);
-
-                Dataset trainingset = trainingValidationSets.training;
-                Dataset validationset = trainingValidationSets.testing;
-                Dataset generalisationset = Dataset.fromFile("ac/up/cos711/digitrecognitionstudy/data/t10k");
-
-                IFFNeuralNet network = new FFNeuralNetBuilder()
-                        .addLayer(trainingset.getInputCount(), Identity.class)
-                        .addLayer(config.hiddenUnits, Sigmoid.class)
-                        .addLayer(trainingset.getTargetCount(), Sigmoid.class)
-                        .build();
-
-                backPropagation = new BackPropagation(
-                        config.acceptableTrainingError,
-                        config.learningRate,
-                        config.binSize,
-                        config.classificationRigor,
-                        config.maxEpoch);
-
-                backPropagation.train(network, trainingset, validationset);
-
-                //consolidate results
-                double trainingError = backPropagation.getTrainingError();
-                double validationError = backPropagation.getValidationError();
-                double generalisationError = new DefaultNetworkError().measure(network, generalisationset);
-                //todo: classificationAccuracy is measured on the generalisation set, check correctness
-                double classificationAccuracy = new ClassificationAccuracy(config.classificationRigor).measure(network, generalisationset);
-
-                //send results to disk
-                Results.writeToFile(expName, "E_t", trainingError);
-                Results.writeToFile(expName, "E_v", validationError);
-                Results.writeToFile(expName, "E_g", generalisationError);
-                Results.writeToFile(expName, "A_c", classificationAccuracy);
-                Results.writeToFile(expName, "Weights", network.getWeightVector());
-
-                Logger.getLogger(Study.class.getName()).log(Level.INFO,
-                        "NN classification accuracy is {0}%", classificationAccuracy);
-            }
+            runSimulations(expName, config, dataset, generalisationset);
         }
-        catch (IOException | IncorrectFileFormatException | NotAFunctionException | ZeroNeuronException | UnequalInputWeightException | UnequalArgsDimensionException | ThresholdOutOfBoundsException ex) {
+        catch (IOException | IncorrectFileFormatException ex) {
             Logger.getLogger(Study.class.getName()).log(Level.SEVERE, "", ex);
         }
     }
@@ -133,7 +115,6 @@ public class Study {
 
         String expName = "Exp_Preprocessed";
         StudyConfig config;
-        BackPropagation backPropagation;
         try {
             config = StudyConfig.fromFile(expName);
 
@@ -141,59 +122,226 @@ public class Study {
                     .getLogger(Study.class.getName())
                     .log(Level.INFO, "Doing {0} simulation(s)", config.simulations);
 
-            for (int i = 1; i <= config.simulations; i++) {
+            //reduced once and shared by all simulations, which only read the patterns
+            Dataset[] datasets = loadDatasets(config);
+            Dataset originalDataset = datasets[0];
+            Dataset reducedDataset = new Preprocessing().averagePixels(originalDataset, pixelsPerDimension, config.pixelBlockSize);
+            Dataset generalisationset = datasets[1];
+            Dataset reducedGeneralisationset = new Preprocessing().averagePixels(generalisationset, pixelsPerDimension, config.pixelBlockSize);
 
-                Logger
-                        .getLogger(Study.class.getName())
-                        .log(Level.INFO, "Starting simulation {0}.", i);
+            runSimulations(expName, config, reducedDataset, reducedGeneralisationset);
+        }
+        catch (IncompatibleBlockSizeException | IOException | IncorrectFileFormatException ex) {
+            Logger.getLogger(Study.class.getName()).log(Level.SEVERE, "", ex);
+        }
+    }
 
-                Dataset originalDataset = Dataset.fromFile("ac/up/cos711/digitrecognitionstudy/data/train");
-                Dataset reducedDataset = new Preprocessing().averagePixels(originalDataset, pixelsPerDimension, config.pixelBlockSize);
-                TrainingTestingTuple trainingValidationSets = reducedDataset.split(0.8);
+    /**
+     * Loads the MNIST training set, shuffled for the split of the study, and
+     * the generalisation set at the same time. Each load is a bulk copy on a
+     * single thread, see {@link Dataset#fromFile(String, Precision, Random)},
+     * so the two loads take two threads in total, the calling thread and one
+     * loader, however many processors there are.
+     *
+     * @param config
+     * @return the training set and the generalisation set
+     * @throws IOException
+     * @throws IncorrectFileFormatException
+     */
+    private static Dataset[] loadDatasets(final StudyConfig config)
+            throws IOException, IncorrectFileFormatException {
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Dataset> generalisationset = loader.submit(new Callable<Dataset>() {
+                @Override
+                public Dataset call() throws Exception {
+                    return Dataset.fromFile(DATA_DIRECTORY + "t10k", precision(config));
+                }
+            });
+            Dataset dataset = Dataset.fromFile(DATA_DIRECTORY + "train", precision(config), shuffleRandom(config, 0));
+            return new Dataset[]{dataset, generalisationset.get()};
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading the datasets.");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof IncorrectFileFormatException)
+                throw (IncorrectFileFormatException) e.getCause();
+            throw new IOException("Cannot load the generalisation set.", e.getCause());
+        }
+        finally {
+            loader.shutdownNow();
+        }
+    }
 
-                Dataset trainingset = trainingValidationSets.training;
-                Dataset validationset = trainingValidationSets.testing;
-                Dataset generalisationset = Dataset.fromFile("ac/up/cos711/digitrecognitionstudy/data/t10k");
-                Dataset reducedGeneralisationset = new Preprocessing().averagePixels(generalisationset, pixelsPerDimension, config.pixelBlockSize);
+    /**
+     * Runs the simulations of an experiment concurrently, up to the number set
+     * by parallelSimulations in the study config, or as many as the processors
+     * and heap allow if it is zero. Results are written in simulation order.
+     * If the study config sweeps any entries, the experiment runs a
+     * hyperparameter sweep instead.
+     */
+    private static void runSimulations(final String expName, final StudyConfig config,
+            final Dataset dataset, final Dataset generalisationset) throws IOException {
+        if ("true".equals(config.telemetry))
+            TrainingStats.enableAllocationTracking();
+
+        int parallelism = config.parallelSimulations > 0
+                ? config.parallelSimulations
+                : SimulationRunner.defaultParallelism(Math.max(config.threads, 1),
+                        simulationFootprint(config, dataset));
+
+        if (!config.sweep.isEmpty()) {
+            runSweep(expName, config, dataset, parallelism);
+            return;
+        }
 
-                IFFNeuralNet network = new FFNeuralNetBuilder()
+        List<Callable<SimulationResult>> simulations = new ArrayList<>();
+        for (int i = 1; i <= config.simulations; i++) {
+            final int simulation = i;
+            simulations.add(new Callable<SimulationResult>() {
+                @Override
+                public SimulationResult call() throws Exception {
+                    return simulate(expName, config, simulation, dataset, generalisationset);
+                }
+            });
+        }
+        new SimulationRunner(parallelism).run(expName, simulations);
+    }
+
+    /**
+     * Sweeps the configurations of an experiment, all trained and validated on
+     * the same split of the dataset so that their errors are comparable.
+     */
+    private static void runSweep(final String expName, StudyConfig config, Dataset dataset, int parallelism)
+            throws IOException {
+        TrainingTestingTuple trainingValidationSets = dataset
+                .copy()
+                .shuffle(shuffleRandom(config, 1))
+                .split(0.8);
+        final Dataset trainingset = trainingValidationSets.training;
+        final Dataset validationset = trainingValidationSets.testing;
+        trainingset.setShuffleBlockSize(config.shuffleBlockSize);
+
+        new HyperparameterSweep(config, parallelism).run(expName, new ISweepTrial() {
+            @Override
+            public IFFNeuralNetTrainer train(StudyConfig candidate, File checkpoint) throws Exception {
+                IFFNeuralNet network = buildNetwork(candidate, new FFNeuralNetBuilder()
                         .addLayer(trainingset.getInputCount(), Identity.class)
-                        .addLayer(config.hiddenUnits, Sigmoid.class)
-                        .addLayer(trainingset.getTargetCount(), Sigmoid.class)
-                        .build();
-
-                backPropagation = new BackPropagation(
-                        config.acceptableTrainingError,
-                        config.learningRate,
-                        config.binSize,
-                        config.classificationRigor,
-                        config.maxEpoch);
-
-                backPropagation.train(network, trainingset, validationset);
-
-                //consolidate results
-                double trainingError = backPropagation.getTrainingError();
-                double validationError = backPropagation.getValidationError();
-                double generalisationError = new DefaultNetworkError().measure(network, reducedGeneralisationset);
-                //todo: classificationAccuracy is measured on the generalisation set, check correctness
-                double classificationAccuracy = new ClassificationAccuracy(config.classificationRigor).measure(network, reducedGeneralisationset);
-
-                //send results to disk
-                Results.writeToFile(expName, "E_t", trainingError);
-                Results.writeToFile(expName, "E_v", validationError);
-                Results.writeToFile(expName, "E_g", generalisationError);
-                Results.writeToFile(expName, "A_c", classificationAccuracy);
-                Results.writeToFile(expName, "Weights", network.getWeightVector());
-
-                Logger.getLogger(Study.class.getName()).log(Level.INFO,
-                        "NN classification accuracy is {0}%", classificationAccuracy);
+                        .addLayer(candidate.hiddenUnits, sigmoid(candidate))
+                        .addLayer(trainingset.getTargetCount(), sigmoid(candidate)));
+
+                IFFNeuralNetTrainer trainer = createTrainer(candidate, expName, 1);
+                if (trainer instanceof BackPropagation)
+                    ((BackPropagation) trainer).setCheckpoint(checkpoint, candidate.maxEpoch);
+                //every round resumes on the training set in its original order
+                trainer.train(network, trainingset.copy(), validationset);
+                return trainer;
             }
+        });
+    }
+
+    /**
+     * Trains and scores one network on its own shuffle of the shared dataset.
+     *
+     * @return the results of the simulation, or null if it had already
+     * completed according to its checkpoint and its results were recorded
+     */
+    private static SimulationResult simulate(String expName, StudyConfig config, int simulation,
+            Dataset dataset, Dataset generalisationset)
+            throws IOException, NotAFunctionException, ZeroNeuronException, UnequalInputWeightException,
+            UnequalArgsDimensionException, ThresholdOutOfBoundsException {
+
+        Logger
+                .getLogger(Study.class.getName())
+                .log(Level.INFO, "Starting simulation {0}.", simulation);
+
+        TrainingTestingTuple trainingValidationSets = dataset
+                .copy()
+                .shuffle(shuffleRandom(config, simulation))
+                .split(0.8);
+
+        Dataset trainingset = trainingValidationSets.training;
+        Dataset validationset = trainingValidationSets.testing;
+        trainingset.setShuffleBlockSize(config.shuffleBlockSize);
+
+        IFFNeuralNet network = buildNetwork(config, new FFNeuralNetBuilder()
+                .addLayer(trainingset.getInputCount(), Identity.class)
+                .addLayer(config.hiddenUnits, sigmoid(config))
+                .addLayer(trainingset.getTargetCount(), sigmoid(config)));
+
+        IFFNeuralNetTrainer trainer = createTrainer(config, expName, simulation);
+        if (trainer instanceof BackPropagation
+                && ((BackPropagation) trainer).hasRecordedCheckpoint(network, trainingset)) {
+            Logger
+                    .getLogger(Study.class.getName())
+                    .log(Level.INFO, "Skipping simulation {0}, its results have already been recorded.", simulation);
+            return null;
         }
-        catch (IncompatibleBlockSizeException | IOException | IncorrectFileFormatException | NotAFunctionException | ZeroNeuronException | UnequalInputWeightException | UnequalArgsDimensionException | ThresholdOutOfBoundsException ex) {
-            Logger.getLogger(Study.class.getName()).log(Level.SEVERE, "", ex);
+
+        TrainingStats stats = null;
+        if ("true".equals(config.telemetry) && trainer instanceof BackPropagation) {
+            stats = new TrainingStats(new File(expName, "Telemetry_" + simulation + ".csv"));
+            stats.register(expName + "-" + simulation);
+            ((BackPropagation) trainer).setStats(stats);
+        }
+        //once there is a result, SimulationRunner closes the stats, see SimulationResult.close
+        boolean scored = false;
+        try {
+            trainer.train(network, trainingset, validationset);
+
+            //consolidate results
+            double trainingError = trainer.getTrainingError();
+            double validationError = trainer.getValidationError();
+            IFFNeuralNet scoringNetwork = scoringNetwork(config, network);
+            double generalisationError = new DefaultNetworkError().measure(scoringNetwork, generalisationset);
+            //todo: classificationAccuracy is measured on the generalisation set, check correctness
+            double classificationAccuracy = new ClassificationAccuracy(config.classificationRigor).measure(scoringNetwork, generalisationset);
+
+            //held until the results of earlier simulations are on disk
+            SimulationResult result = new SimulationResult(simulation);
+            result.setStats(stats);
+            if (config.checkpointInterval > 0 && trainer instanceof BackPropagation)
+                result.setCheckpoint(checkpointFile(expName, simulation));
+            result.add("E_t", trainingError);
+            result.add("E_v", validationError);
+            if (trainer instanceof BackPropagation)
+                result.add("T_target", ((BackPropagation) trainer).getTimeToTarget());
+            result.add("E_g", generalisationError);
+            result.add("A_c", classificationAccuracy);
+            result.add("Weights", network.getWeightVector());
+
+            Logger.getLogger(Study.class.getName()).log(Level.INFO,
+                    "NN classification accuracy of simulation {0} is {1}%",
+                    new Object[]{simulation, classificationAccuracy});
+
+            if ("int8".equals(config.quantization))
+                reportQuantization(result, config, network, validationset, generalisationset, classificationAccuracy);
+            scored = true;
+            return result;
+        }
+        finally {
+            if (!scored && stats != null)
+                stats.close();
         }
     }
 
+    /**
+     * Estimates the heap a simulation needs beyond the shared patterns: its
+     * own order of the patterns and a few copies of the weights, for deltas,
+     * update rule state and snapshots, and of the bin's activations.
+     */
+    private static long simulationFootprint(StudyConfig config, Dataset dataset) {
+        long inputs = dataset.getInputCount();
+        long outputs = dataset.getTargetCount();
+        long weights = (inputs + 1) * config.hiddenUnits + (config.hiddenUnits + 1) * outputs;
+        long activations = Math.max(config.binSize, 1) * (inputs + config.hiddenUnits + outputs);
+        return dataset.size() * 8L + weights * 8 * 8 + activations * 8 * 3;
+    }
+
     private static void expSOM() {
 
         Logger
@@ -210,6 +358,144 @@ public class Study {
 //                    .log(Level.INFO, "Doing {0} simulation(s)", config.simulations);
     }
 
+    /**
+     * Creates the trainer selected in the study config for the given
+     * simulation: BackPropagation, or its lock-free asynchronous variant.
+     */
+    private static IFFNeuralNetTrainer createTrainer(StudyConfig config, String expName, int simulation)
+            throws ThresholdOutOfBoundsException {
+        if ("hogwild".equals(config.trainer)) {
+            HogwildBackPropagation hogwild = new HogwildBackPropagation(
+                    config.acceptableTrainingError,
+                    config.learningRate,
+                    config.maxEpoch,
+                    Math.max(config.threads, 1));
+            if ("true".equals(config.sparseInputs))
+                hogwild.setSparseInputs(Dataset.scale(0));
+            if (config.seed != 0)
+                hogwild.setSeed(config.seed + simulation);
+            return hogwild;
+        }
+
+        BackPropagation backPropagation = new BackPropagation(
+                config.acceptableTrainingError,
+                config.learningRate,
+                config.binSize,
+                config.classificationRigor,
+                config.maxEpoch);
+        if ("true".equals(config.sparseInputs))
+            backPropagation.setSparseInputs(Dataset.scale(0));
+        if (config.threads > 1)
+            backPropagation.setThreads(config.threads);
+        if ("pipelined".equals(config.validation))
+            backPropagation.setPipelinedValidation(true);
+        if ("sampled".equals(config.validation))
+            backPropagation.setSampledValidation(config.seed != 0
+                    ? new SampledNetworkError(1.96, 512, new Random(config.seed + simulation))
+                    : new SampledNetworkError());
+        if (config.seed != 0)
+            backPropagation.setSeed(config.seed + simulation);
+        backPropagation.setUpdateRule(updateRule(config));
+        if (config.checkpointInterval > 0)
+            backPropagation.setCheckpoint(checkpointFile(expName, simulation), config.checkpointInterval);
+        return backPropagation;
+    }
+
+    /**
+     * The checkpoint file of a simulation, which only exists if the study
+     * config sets a checkpoint interval. Resuming reproduces the interrupted
+     * run only if the config also sets a seed, so that the dataset is split
+     * the same way.
+     */
+    private static File checkpointFile(String expName, int simulation) {
+        return new File(CHECKPOINT_DIRECTORY, expName + "_" + simulation + ".ckpt");
+    }
+
+    /**
+     * The random number generator that shuffles the dataset before it is
+     * split, seeded per simulation if the study config sets a seed.
+     */
+    private static Random shuffleRandom(StudyConfig config, int simulation) {
+        return config.seed != 0 ? new Random(config.seed + simulation) : new Random(System.nanoTime());
+    }
+
+    /**
+     * The weight update rule selected in the study config, plain gradient
+     * descent by default.
+     */
+    private static IWeightUpdateRule updateRule(StudyConfig config) {
+        if ("momentum".equals(config.updateRule))
+            return new Momentum(config.momentum);
+        if ("nesterov".equals(config.updateRule))
+            return new NesterovMomentum(config.momentum);
+        if ("adam".equals(config.updateRule))
+            return new Adam(config.learningRate);
+        return new GradientDescent();
+    }
+
+    /**
+     * The trained network, or a snapshot of it with a forward pass compiled
+     * for its topology if the study config asks for one.
+     */
+    private static IFFNeuralNet scoringNetwork(StudyConfig config, IFFNeuralNet network) {
+        if ("compiled".equals(config.inference))
+            return CompiledFFNeuralNet.compile(network);
+        return network;
+    }
+
+    /**
+     * Quantizes the trained network to int8, calibrated on the validation set,
+     * and reports its classification accuracy on the generalisation set
+     * together with the drop from the double precision network.
+     */
+    private static void reportQuantization(SimulationResult result, StudyConfig config, IFFNeuralNet network,
+            Dataset validationset, Dataset generalisationset, double classificationAccuracy)
+            throws IOException, UnequalInputWeightException, UnequalArgsDimensionException, ThresholdOutOfBoundsException {
+
+        QuantizedFFNeuralNet quantizedNetwork = QuantizedFFNeuralNet.quantize(network, validationset);
+        double quantizedAccuracy = new ClassificationAccuracy(config.classificationRigor).measure(quantizedNetwork, generalisationset);
+
+        result.add("A_q", quantizedAccuracy);
+
+        Logger.getLogger(Study.class.getName()).log(Level.INFO,
+                "Int8 classification accuracy is {0}% (drop of {1}%), "
+                + "model size {2} bytes instead of {3}.", new Object[]{
+                    quantizedAccuracy,
+                    classificationAccuracy - quantizedAccuracy,
+                    quantizedNetwork.getModelSize(),
+                    network.getDimensionality() * 8L
+                });
+    }
+
+    /**
+     * Builds the configured network using the engine selected in the study
+     * config.
+     */
+    private static IFFNeuralNet buildNetwork(StudyConfig config, FFNeuralNetBuilder builder) {
+        if ("flat".equals(config.engine))
+            return builder
+                    .setPrecision(precision(config), !"single".equals(config.accumulation))
+                    .buildFlat();
+        return builder.build();
+    }
+
+    /**
+     * Precision in which datasets and flat network weights are stored.
+     */
+    private static Precision precision(StudyConfig config) {
+        return "single".equals(config.precision) ? Precision.SINGLE : Precision.DOUBLE;
+    }
+
+    /**
+     * The exact Sigmoid, or its table-driven approximation if the study config
+     * specifies an error bound for it.
+     */
+    private static IFunction sigmoid(StudyConfig config) {
+        if (config.sigmoidErrorBound > 0)
+            return new PiecewiseLinearSigmoid(1, config.sigmoidErrorBound);
+        return new Sigmoid();
+    }
+
     private static void setupLogging() throws IOException {
         Formatter logFormatter = new StudyLogFormatter();
         Logger.getLogger(Study.class.getName()).setLevel(Level.CONFIG);
@@ -225,4 +511,6 @@ public class Study {
 
     private static int pixelsPerDimension = 28;
 
+    private static final String CHECKPOINT_DIRECTORY = "checkpoints";
+    private static final String DATA_DIRECTORY = "ac/up/cos711/digitrecognitionstudy/data/";
 }
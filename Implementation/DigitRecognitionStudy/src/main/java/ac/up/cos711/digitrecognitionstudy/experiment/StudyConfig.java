@@ -2,13 +2,15 @@ package ac.up.cos711.digitrecognitionstudy.experiment;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
  * todo: no exceptions if entries aren't found
  * @author Abrie van Aardt
  */
-public class StudyConfig {
+public class StudyConfig implements Cloneable {
 
     public int hiddenUnits;
     public double acceptableTrainingError;
@@ -18,13 +20,54 @@ public class StudyConfig {
     public int maxEpoch;
     public int simulations;
     public int pixelBlockSize;
+    //"flat" selects FlatFFNeuralNet, anything else the Neuron based network
+    public String engine;
+    //a positive value selects PiecewiseLinearSigmoid with this error bound
+    public double sigmoidErrorBound;
+    //"single" stores datasets and flat network weights as floats
+    public String precision;
+    //"single" also accumulates weighted sums of float weights in float
+    public String accumulation;
+    //"int8" also reports the accuracy of the int8 quantized network
+    public String quantization;
+    //"compiled" measures E_g and A_c with a topology-specialised snapshot
+    public String inference;
+    //"true" trains flat networks on sparse encodings of background pixels
+    public String sparseInputs;
+    //number of threads BackPropagation splits every bin over
+    public int threads;
+    //"hogwild" trains with lock-free asynchronous updates on threads
+    public String trainer;
+    //"pipelined" validates each epoch in the background during the next,
+    //"sampled" estimates E_v from as few patterns as the stopping rule needs
+    public String validation;
+    //a non-zero value makes weight initialisation and shuffling reproducible
+    public long seed;
+    //"momentum", "nesterov" or "adam" replace plain gradient descent
+    public String updateRule;
+    //fraction of the velocity kept per bin by "momentum" and "nesterov"
+    public double momentum = 0.9;
+    //epochs between training checkpoints, none are written if zero
+    public int checkpointInterval;
+    //simulations run at the same time, as many as fit the machine if zero
+    public int parallelSimulations;
+    //a value above 1 shuffles the training set in blocks of adjacent patterns
+    public int shuffleBlockSize;
+    //"true" exposes training stats through JMX and writes them per epoch
+    public String telemetry;
+    //epochs every swept configuration trains before the first pruning
+    public int sweepMinEpochs = 1;
+    //a sweep keeps the best 1/sweepReduction of the configurations per round
+    public int sweepReduction = 3;
+    //values per swept entry, in the order they were given
+    public Map<String, String[]> sweep = new LinkedHashMap<>();
 
     public static StudyConfig fromFile(String expName) throws FileNotFoundException {
         StudyConfig config = new StudyConfig();
         Scanner fileScanner = new Scanner(new File("study.config"));
         fileScanner.useDelimiter("\\r|\\r\\n|\\n|\\s=\\s");
 
-        fileScanner.findWithinHorizon(expName, 1000);
+        fileScanner.findWithinHorizon(expName, 0);
         fileScanner.next();
 
         while (fileScanner.hasNext()) {
@@ -34,36 +77,124 @@ public class StudyConfig {
                 break;
             }
             
-            if (null != next) switch (next) {
-                case "hiddenUnits":
-                    config.hiddenUnits = fileScanner.nextInt();
-                    break;
-                case "acceptableTrainingError":
-                    config.acceptableTrainingError = fileScanner.nextDouble();
-                    break;
-                case "learningRate":
-                    config.learningRate = fileScanner.nextDouble();
-                    break;
-                case "binSize":
-                    config.binSize = fileScanner.nextInt();
-                    break;
-                case "classificationRigor":
-                    config.classificationRigor = fileScanner.nextDouble();
-                    break;
-                case "maxEpoch":
-                    config.maxEpoch = fileScanner.nextInt();
-                    break;
-                case "simulations":
-                    config.simulations = fileScanner.nextInt();
-                    break;
-                case "pixelBlockSize":
-                    config.pixelBlockSize = fileScanner.nextInt();
-                    break;
-                default:
-                    break;
+            //a comma separated list of values is swept, see HyperparameterSweep
+            if (fileScanner.hasNext(".*,.*")) {
+                config.sweep.put(next, fileScanner.next().split("\\s*,\\s*"));
+                continue;
             }
+
+            apply(config, next, fileScanner);
         }
 
         return config;
     }
+
+    /**
+     * Copies this config with a single entry replaced, as if the value had
+     * been given in study.config.
+     *
+     * @param key
+     * @param value
+     * @return the copy, which sweeps no values
+     */
+    public StudyConfig with(String key, String value) {
+        StudyConfig copy;
+        try {
+            copy = (StudyConfig) clone();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        copy.sweep = new LinkedHashMap<>();
+        apply(copy, key, new Scanner(value));
+        return copy;
+    }
+
+    private static void apply(StudyConfig config, String key, Scanner fileScanner) {
+        switch (key) {
+            case "hiddenUnits":
+                config.hiddenUnits = fileScanner.nextInt();
+                break;
+            case "acceptableTrainingError":
+                config.acceptableTrainingError = fileScanner.nextDouble();
+                break;
+            case "learningRate":
+                config.learningRate = fileScanner.nextDouble();
+                break;
+            case "binSize":
+                config.binSize = fileScanner.nextInt();
+                break;
+            case "classificationRigor":
+                config.classificationRigor = fileScanner.nextDouble();
+                break;
+            case "maxEpoch":
+                config.maxEpoch = fileScanner.nextInt();
+                break;
+            case "simulations":
+                config.simulations = fileScanner.nextInt();
+                break;
+            case "pixelBlockSize":
+                config.pixelBlockSize = fileScanner.nextInt();
+                break;
+            case "engine":
+                config.engine = fileScanner.next();
+                break;
+            case "sigmoidErrorBound":
+                config.sigmoidErrorBound = fileScanner.nextDouble();
+                break;
+            case "precision":
+                config.precision = fileScanner.next();
+                break;
+            case "accumulation":
+                config.accumulation = fileScanner.next();
+                break;
+            case "quantization":
+                config.quantization = fileScanner.next();
+                break;
+            case "inference":
+                config.inference = fileScanner.next();
+                break;
+            case "sparseInputs":
+                config.sparseInputs = fileScanner.next();
+                break;
+            case "threads":
+                config.threads = fileScanner.nextInt();
+                break;
+            case "seed":
+                config.seed = fileScanner.nextLong();
+                break;
+            case "trainer":
+                config.trainer = fileScanner.next();
+                break;
+            case "validation":
+                config.validation = fileScanner.next();
+                break;
+            case "updateRule":
+                config.updateRule = fileScanner.next();
+                break;
+            case "momentum":
+                config.momentum = fileScanner.nextDouble();
+                break;
+            case "checkpointInterval":
+                config.checkpointInterval = fileScanner.nextInt();
+                break;
+            case "parallelSimulations":
+                config.parallelSimulations = fileScanner.nextInt();
+                break;
+            case "shuffleBlockSize":
+                config.shuffleBlockSize = fileScanner.nextInt();
+                break;
+            case "telemetry":
+                config.telemetry = fileScanner.next();
+                break;
+            case "sweepMinEpochs":
+                config.sweepMinEpochs = fileScanner.nextInt();
+                break;
+            case "sweepReduction":
+                config.sweepReduction = fileScanner.nextInt();
+                break;
+            default:
+                break;
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package ac.up.cos711.digitrecognitionstudy.function;
+
+/**
+ * Primitive contract for activation functions of a single variable. Unlike
+ * {@link IFunction#evaluate(double...)}, neither method wraps its argument in
+ * an array or checks its dimensionality, which makes this the preferred path
+ * for the per-neuron calls in the forward and backward passes.
+ *
+ * @author Abrie van Aardt
+ */
+public interface IScalarActivation {
+
+    /**
+     * Computes the activation for the net input x.
+     *
+     * @param x net input
+     * @return activation
+     */
+    public double apply(double x);
+
+    /**
+     * Computes the derivative of the activation function, expressed in terms
+     * of its output y = apply(x), as is customary for BackPropagation.
+     *
+     * @param y output of the activation function
+     * @return derivative at the corresponding net input
+     */
+    public double derivativeFromOutput(double y);
+}
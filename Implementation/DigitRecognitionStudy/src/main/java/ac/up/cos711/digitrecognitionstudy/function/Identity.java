@@ -7,7 +7,7 @@ import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionExce
  *
  * @author Abrie van Aardt
  */
-public class Identity implements IFunction {
+public class Identity implements IFunction, IScalarActivation {
 
     @Override
     public int getDimensionality() {
@@ -20,4 +20,14 @@ public class Identity implements IFunction {
             throw new UnequalArgsDimensionException();
         return x[0];
     }
+
+    @Override
+    public double apply(double x) {
+        return x;
+    }
+
+    @Override
+    public double derivativeFromOutput(double y) {
+        return 1;
+    }
 }
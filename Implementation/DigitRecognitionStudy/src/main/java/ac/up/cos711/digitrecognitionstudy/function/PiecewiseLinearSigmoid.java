@@ -0,0 +1,72 @@
+package ac.up.cos711.digitrecognitionstudy.function;
+
+/**
+ * Table-driven approximation of {@link Sigmoid}. Sigmoid is tabulated at
+ * equally spaced points in [-xMax, xMax] and evaluated by linear interpolation
+ * between them; outside of that range the end points of the table are used.
+ * The spacing and range are derived from the maximum absolute error allowed
+ * with respect to the exact Sigmoid:
+ * <pre>
+ *  interpolation error &lt;= h^2 / 8 * max|σ''| = h^2 * λ^2 / (48 * sqrt(3))
+ *  clamping error      &lt;= σ(-xMax)
+ * </pre> The derivative is that of the exact Sigmoid at the output.
+ *
+ * @author Abrie van Aardt
+ */
+public class PiecewiseLinearSigmoid extends Sigmoid {
+
+    public PiecewiseLinearSigmoid() {
+        this(1, DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * @param _lambda steepness of the Sigmoid
+     * @param _maxError maximum absolute error of the approximation, in (0, 0.5)
+     */
+    public PiecewiseLinearSigmoid(double _lambda, double _maxError) {
+        super(_lambda);
+
+        if (!(_maxError > 0 && _maxError < 0.5))
+            throw new IllegalArgumentException("The error bound must be in (0, 0.5).");
+
+        maxError = _maxError;
+        //spend half of the error bound on clamping, half on interpolation
+        xMax = Math.log(2 / maxError - 1) / lambda;
+        double step = Math.sqrt(maxError * 24 * Math.sqrt(3)) / lambda;
+        int segments = (int) Math.ceil(2 * xMax / step);
+        step = 2 * xMax / segments;
+        inverseStep = 1 / step;
+
+        table = new double[segments + 1];
+        for (int i = 0; i <= segments; i++) {
+            table[i] = super.apply(-xMax + i * step);
+        }
+    }
+
+    @Override
+    public double apply(double x) {
+        if (x <= -xMax)
+            return table[0];
+        if (x >= xMax)
+            return table[table.length - 1];
+
+        double position = (x + xMax) * inverseStep;
+        int index = (int) position;
+        if (index >= table.length - 1)//rounding at the upper end
+            return table[table.length - 1];
+
+        double fraction = position - index;
+        return table[index] + fraction * (table[index + 1] - table[index]);
+    }
+
+    public double getMaxError() {
+        return maxError;
+    }
+
+    public static final double DEFAULT_MAX_ERROR = 1e-4;
+
+    private final double maxError;
+    private final double xMax;
+    private final double inverseStep;
+    private final double[] table;
+}
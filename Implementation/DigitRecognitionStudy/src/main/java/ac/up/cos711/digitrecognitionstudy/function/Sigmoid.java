@@ -8,7 +8,7 @@ import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionExce
  *
  * @author Abrie van Aardt
  */
-public class Sigmoid implements IFunction {
+public class Sigmoid implements IFunction, IScalarActivation {
 
     double lambda;
 
@@ -30,7 +30,27 @@ public class Sigmoid implements IFunction {
         if (x.length != 1)
             throw new UnequalArgsDimensionException();
 
-        return 1.0 / (1.0 + Math.pow(Math.E, -lambda * x[0]));
+        return apply(x[0]);
+    }
+
+    @Override
+    public double apply(double x) {
+        return 1.0 / (1.0 + Math.exp(-lambda * x));
+    }
+
+    /**
+     * The derivative of Sigmoid in terms of its output is λy(1 - y).
+     *
+     * @param y
+     * @return derivative
+     */
+    @Override
+    public double derivativeFromOutput(double y) {
+        return lambda * y * (1 - y);
+    }
+
+    public double getLambda() {
+        return lambda;
     }
 
 }
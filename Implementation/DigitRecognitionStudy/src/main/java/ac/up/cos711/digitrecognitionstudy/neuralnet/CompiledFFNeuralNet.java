@@ -0,0 +1,172 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.codegen.CodeGenerationException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.codegen.ITopologyKernel;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.codegen.TopologyCompiler;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable inference snapshot of an {@link IFFNeuralNet} whose forward pass
+ * is a class generated for its exact topology by {@link TopologyCompiler}.
+ * Like {@link FrozenFFNeuralNet}, the snapshot keeps no per-call state and can
+ * be shared by threads that each hold their own {@link Workspace}.
+ *
+ * @author Abrie van Aardt
+ */
+public final class CompiledFFNeuralNet implements IFFNeuralNet {
+
+    /**
+     * Takes a snapshot of network with a forward pass specialised for its
+     * topology. If no specialised class can be generated, for example when
+     * running on a JRE without a compiler, a {@link FrozenFFNeuralNet} is
+     * returned instead.
+     *
+     * @param network
+     * @return compiled snapshot, or a frozen one if compilation is not possible
+     */
+    public static IFFNeuralNet compile(IFFNeuralNet network) {
+        FrozenFFNeuralNet frozen = network.freeze();
+        int layerCount = frozen.getLayerCount();
+        int[] layerSizes = new int[layerCount];
+        IFunction[] activationFunctions = new IFunction[layerCount];
+        for (int i = 0; i < layerCount; i++) {
+            layerSizes[i] = frozen.getNeuronCount(i);
+            activationFunctions[i] = frozen.getActivationFunction(i);
+        }
+
+        try {
+            ITopologyKernel kernel = TopologyCompiler.compile(layerSizes, activationFunctions);
+            return new CompiledFFNeuralNet(frozen, kernel, layerSizes, activationFunctions);
+        }
+        catch (CodeGenerationException e) {
+            Logger.getLogger(CompiledFFNeuralNet.class.getName())
+                    .log(Level.WARNING, "Using a frozen network instead of a compiled one: {0}", e.getMessage());
+            return frozen;
+        }
+    }
+
+    private CompiledFFNeuralNet(FrozenFFNeuralNet network, ITopologyKernel _kernel,
+            int[] _layerSizes, IFunction[] activationFunctions) {
+        frozen = network;
+        kernel = _kernel;
+        layerSizes = _layerSizes;
+        weightVector = network.getWeightVector();
+        scalarActivations = new IScalarActivation[activationFunctions.length];
+        for (int i = 0; i < activationFunctions.length; i++) {
+            scalarActivations[i] = (IScalarActivation) activationFunctions[i];
+        }
+    }
+
+    /**
+     * Thread-safe, but allocates a workspace on every call. Prefer
+     * {@link #classifyInto(double[], double[], Workspace)} with a workspace
+     * per thread.
+     */
+    @Override
+    public double[] classify(double... inputPattern) throws UnequalInputWeightException, UnequalArgsDimensionException {
+        double[] outputPattern = new double[layerSizes[layerSizes.length - 1]];
+        classifyInto(inputPattern, outputPattern, createWorkspace());
+        return outputPattern;
+    }
+
+    @Override
+    public void classifyInto(double[] inputPattern, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (inputPattern.length != layerSizes[0]
+                || outputs.length != layerSizes[layerSizes.length - 1]
+                || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        kernel.feed(inputPattern, 0, weightVector, workspace.activations, scalarActivations);
+        System.arraycopy(workspace.activations[layerSizes.length - 1], 0, outputs, 0, outputs.length);
+    }
+
+    @Override
+    public void classifyBatch(double[] inputPatterns, int patternCount, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        int inputCount = layerSizes[0];
+        int outputCount = layerSizes[layerSizes.length - 1];
+
+        if (inputPatterns.length < patternCount * inputCount
+                || outputs.length < patternCount * outputCount
+                || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        workspace.ensureBatchCapacity(patternCount);
+        double[][] activations = workspace.activations;
+        double[][] batchActivations = workspace.batchActivations;
+
+        //the generated kernel works on one pattern at a time
+        for (int p = 0; p < patternCount; p++) {
+            kernel.feed(inputPatterns, p * inputCount, weightVector, activations, scalarActivations);
+            for (int i = 0; i < layerSizes.length; i++) {
+                System.arraycopy(activations[i], 0, batchActivations[i], p * layerSizes[i], layerSizes[i]);
+            }
+        }
+
+        System.arraycopy(batchActivations[layerSizes.length - 1], 0, outputs, 0, patternCount * outputCount);
+    }
+
+    @Override
+    public void classifyBatch(Dataset dataset, int from, int to, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (dataset.getInputCount() != layerSizes[0] || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        workspace.ensureBatchCapacity(to - from);
+        dataset.copyInputs(from, to, workspace.batchActivations[0]);
+        classifyBatch(workspace.batchActivations[0], to - from, outputs, workspace);
+    }
+
+    @Override
+    public Workspace createWorkspace() {
+        return new Workspace(layerSizes);
+    }
+
+    @Override
+    public double[] getWeightVector() {
+        return weightVector.clone();
+    }
+
+    /**
+     * @throws UnsupportedOperationException since the snapshot is immutable
+     */
+    @Override
+    public void setWeightVector(double... _weightVector) {
+        throw new UnsupportedOperationException("A compiled network cannot be modified.");
+    }
+
+    @Override
+    public int getDimensionality() {
+        return weightVector.length;
+    }
+
+    /**
+     * @return the frozen snapshot this network was compiled from
+     */
+    @Override
+    public FrozenFFNeuralNet freeze() {
+        return frozen;
+    }
+
+    public int getLayerCount() {
+        return layerSizes.length;
+    }
+
+    public int getNeuronCount(int layer) {
+        return layerSizes[layer];
+    }
+
+    private final FrozenFFNeuralNet frozen;
+    private final ITopologyKernel kernel;
+    private final int[] layerSizes;
+    //never exposed, so that the weights cannot change after construction
+    private final double[] weightVector;
+    private final IScalarActivation[] scalarActivations;
+}
@@ -1,5 +1,6 @@
 package ac.up.cos711.digitrecognitionstudy.neuralnet;
 
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetConfig;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
@@ -8,56 +9,117 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Default implementation of an {@link IFFNeuralNet}.
+ * Default implementation of an {@link IFFNeuralNet}, which stores its weights
+ * in {@link Neuron} objects, see {@link INeuronFFNeuralNet}.
  *
  * @author Abrie van Aardt
  */
-public class FFNeuralNet implements IFFNeuralNet {
+public class FFNeuralNet implements INeuronFFNeuralNet {
 
-    public FFNeuralNet(FFNeuralNetConfig config) {
+    public FFNeuralNet(FFNeuralNetConfig _config) {
+        config = _config;
         layers = new Neuron[config.layers.size()][];        
+        layerSizes = new int[layers.length];
         
         for (int i = 0; i < layers.length; i++) {
             layers[i] = new Neuron[config.layers.get(i).neuronCount];
+            layerSizes[i] = layers[i].length;
             for (int j = 0; j < layers[i].length; j++) {
                 layers[i][j] = new Neuron();
                 layers[i][j].setActivationFunction(config.layers.get(i).activationFunction);
                 layers[i][j].setWeightCount(config.layers.get(i).weightCountPerNeuron);
             }
         }
+
+        workspace = createWorkspace();
     }
 
     @Override
     public double[] classify(double... inputPattern) throws UnequalInputWeightException, UnequalArgsDimensionException {
-        double[] tempInputPattern;
-        double[] tempOutputPattern;
+        double[] outputPattern = new double[layers[layers.length - 1].length];
+        classifyInto(inputPattern, outputPattern, workspace);
+        return outputPattern;
+    }
 
+    @Override
+    public void classifyInto(double[] inputPattern, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
         //input pattern dimension must match number of input neurons
-        if (inputPattern.length != layers[0].length)
+        if (inputPattern.length != layers[0].length
+                || outputs.length != layers[layers.length - 1].length
+                || !_workspace.fits(layerSizes))
             throw new UnequalArgsDimensionException();
 
-        //set output pattern length to number of neurons in this layer
-        tempOutputPattern = new double[inputPattern.length];
+        double[][] activations = _workspace.activations;
 
         //feed inputPattern individually to neurons in the input layer
         for (int i = 0; i < inputPattern.length; i++) {
-            tempOutputPattern[i] = layers[0][i].feed(inputPattern[i]);
+            activations[0][i] = layers[0][i].feed(inputPattern[i]);
         }
 
-        //current output becomes the input for the next layer
-        tempInputPattern = tempOutputPattern;
-
+        //output of the previous layer becomes the input for the next layer
         for (int i = 1; i < layers.length; i++) {
-            //set output pattern length to number of neurons in current layer
-            tempOutputPattern = new double[layers[i].length];
-            //feed input pattern to all neurons in current layer
-            for (int j = 0; j < tempOutputPattern.length; j++) {
-                tempOutputPattern[j] = layers[i][j].feed(tempInputPattern);
+            for (int j = 0; j < layers[i].length; j++) {
+                activations[i][j] = layers[i][j].feed(activations[i - 1]);
             }
-            tempInputPattern = tempOutputPattern;
         }
-        
-        return tempOutputPattern;
+
+        System.arraycopy(activations[layers.length - 1], 0, outputs, 0, outputs.length);
+    }
+
+    /**
+     * Classifies the batch one pattern at a time, since the neurons hold their
+     * own weights. The activations of each pattern are copied into the batch
+     * buffers of the workspace.
+     */
+    @Override
+    public void classifyBatch(double[] inputPatterns, int patternCount, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        int inputCount = layers[0].length;
+        int outputCount = layers[layers.length - 1].length;
+
+        if (inputPatterns.length < patternCount * inputCount
+                || outputs.length < patternCount * outputCount
+                || !_workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        _workspace.ensureBatchCapacity(patternCount);
+        double[][] activations = _workspace.activations;
+        double[][] batchActivations = _workspace.batchActivations;
+
+        for (int p = 0; p < patternCount; p++) {
+            for (int i = 0; i < inputCount; i++) {
+                activations[0][i] = layers[0][i].feed(inputPatterns[p * inputCount + i]);
+            }
+
+            for (int i = 1; i < layers.length; i++) {
+                for (int j = 0; j < layers[i].length; j++) {
+                    activations[i][j] = layers[i][j].feed(activations[i - 1]);
+                }
+            }
+
+            for (int i = 0; i < layers.length; i++) {
+                System.arraycopy(activations[i], 0, batchActivations[i], p * layerSizes[i], layerSizes[i]);
+            }
+            System.arraycopy(activations[layers.length - 1], 0, outputs, p * outputCount, outputCount);
+        }
+    }
+
+    @Override
+    public void classifyBatch(Dataset dataset, int from, int to, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (dataset.getInputCount() != layers[0].length || !_workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        //gather the inputs into the input layer's batch buffer
+        _workspace.ensureBatchCapacity(to - from);
+        dataset.copyInputs(from, to, _workspace.batchActivations[0]);
+        classifyBatch(_workspace.batchActivations[0], to - from, outputs, _workspace);
+    }
+
+    @Override
+    public Workspace createWorkspace() {
+        return new Workspace(layerSizes);
     }
 
     @Override
@@ -100,6 +162,11 @@ public class FFNeuralNet implements IFFNeuralNet {
         }
     }
 
+    @Override
+    public FrozenFFNeuralNet freeze() {
+        return new FrozenFFNeuralNet(config, getWeightVector());
+    }
+
     @Override
     public Neuron[][] getNetworkLayers() {
         //handle with care, no pun intended
@@ -107,7 +174,10 @@ public class FFNeuralNet implements IFFNeuralNet {
     }
     
     private Neuron[][] layers;  
-
-    
+    //topology the network was built from, used to take snapshots
+    private final FFNeuralNetConfig config;
+    private final int[] layerSizes;
+    //used by classify, which is not thread-safe because of Neuron state anyway
+    private final Workspace workspace;
 
 }
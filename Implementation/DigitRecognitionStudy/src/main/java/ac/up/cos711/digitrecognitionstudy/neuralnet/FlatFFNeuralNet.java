@@ -0,0 +1,660 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
+import ac.up.cos711.digitrecognitionstudy.data.SparseInputs;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.IVectorKernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.Kernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetConfig;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.util.Arrays;
+
+/**
+ * Implementation of an {@link IFFNeuralNet} that stores every layer as a
+ * single contiguous weight matrix instead of individual {@link Neuron}
+ * objects. The weights of layer i are kept row-major (one row per neuron) in
+ * a double[] of neuronCount(i) x neuronCount(i - 1) elements, with the biases
+ * of the layer in a separate vector. The forward pass then reduces to a
+ * matrix-vector product per layer.
+ *
+ * The weight vector exposed through {@link #getWeightVector()} has the same
+ * ordering as that of {@link FFNeuralNet} (the bias is the last weight of every
+ * neuron), so the two implementations are interchangeable.
+ *
+ * If the configuration asks for {@link Precision#SINGLE}, the weights are
+ * stored as floats instead, halving the memory and bandwidth of the weight
+ * matrices. Weighted sums are then accumulated in double precision unless
+ * {@link FFNeuralNetConfig#doubleAccumulation} is turned off. Activations and
+ * the layer operations used for training remain in double precision.
+ *
+ * @author Abrie van Aardt
+ */
+public class FlatFFNeuralNet implements IFFNeuralNet {
+
+    public FlatFFNeuralNet(FFNeuralNetConfig _config) {
+        config = _config;
+        int layerCount = config.layers.size();
+        layerSizes = new int[layerCount];
+        activationFunctions = new IFunction[layerCount];
+        scalarActivations = new IScalarActivation[layerCount];
+        singlePrecision = config.precision == Precision.SINGLE;
+        doubleAccumulation = config.doubleAccumulation;
+        weights = singlePrecision ? null : new double[layerCount][];
+        biases = singlePrecision ? null : new double[layerCount][];
+        singleWeights = singlePrecision ? new float[layerCount][] : null;
+        singleBiases = singlePrecision ? new float[layerCount][] : null;
+
+        for (int i = 0; i < layerCount; i++) {
+            layerSizes[i] = config.layers.get(i).neuronCount;
+            activationFunctions[i] = config.layers.get(i).activationFunction;
+            //take the primitive path whenever the function offers one
+            if (activationFunctions[i] instanceof IScalarActivation)
+                scalarActivations[i] = (IScalarActivation) activationFunctions[i];
+
+            //input layer has no weights
+            int weightCount = i == 0 ? 0 : layerSizes[i] * layerSizes[i - 1];
+            int biasCount = i == 0 ? 0 : layerSizes[i];
+            if (singlePrecision) {
+                singleWeights[i] = new float[weightCount];
+                singleBiases[i] = new float[biasCount];
+            }
+            else {
+                weights[i] = new double[weightCount];
+                biases[i] = new double[biasCount];
+            }
+        }
+
+        workspace = createWorkspace();
+    }
+
+    @Override
+    public double[] classify(double... inputPattern) throws UnequalInputWeightException, UnequalArgsDimensionException {
+        double[] outputPattern = new double[layerSizes[layerSizes.length - 1]];
+        classifyInto(inputPattern, outputPattern, workspace);
+        return outputPattern;
+    }
+
+    @Override
+    public void classifyInto(double[] inputPattern, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        //input pattern dimension must match number of input neurons
+        if (inputPattern.length != layerSizes[0]
+                || outputs.length != layerSizes[layerSizes.length - 1]
+                || !_workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        double[][] activations = _workspace.activations;
+        double[] argument = _workspace.argument;
+
+        //input layer applies its activation function to each input in turn
+        if (activationFunctions[0] instanceof Identity) {
+            System.arraycopy(inputPattern, 0, activations[0], 0, inputPattern.length);
+        }
+        else if (scalarActivations[0] != null) {
+            for (int i = 0; i < inputPattern.length; i++) {
+                activations[0][i] = scalarActivations[0].apply(inputPattern[i]);
+            }
+        }
+        else {
+            for (int i = 0; i < inputPattern.length; i++) {
+                argument[0] = inputPattern[i];
+                activations[0][i] = activationFunctions[0].evaluate(argument);
+            }
+        }
+
+        //output of the previous layer is the input to the current one
+        for (int i = 1; i < layerSizes.length; i++) {
+            feedLayer(i, activations[i - 1], activations[i], argument);
+        }
+
+        System.arraycopy(activations[layerSizes.length - 1], 0, outputs, 0, outputs.length);
+    }
+
+    /**
+     * Classifies a pattern given in sparse encoding. If the input layer uses
+     * {@link Identity} and the background of the encoding was set with
+     * {@link #setInputBackground(double)}, the first hidden layer only visits
+     * the inputs that differ from the background,
+     * <pre>
+     *  net_j = backgroundTerm_j + sum_k(w_jk * offset_k)
+     * </pre> where backgroundTerm_j = background * sum_k(w_jk) - bias_j is kept
+     * up to date as the weights change. Otherwise the pattern is expanded and
+     * classified as with {@link #classifyInto(double[], double[], Workspace)}.
+     *
+     * @param inputs
+     * @param outputs receives the class probabilities
+     * @param _workspace obtained from {@link #createWorkspace()}
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public void classifySparseInto(SparseInputs inputs, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (inputs.getDimension() != layerSizes[0]
+                || outputs.length != layerSizes[layerSizes.length - 1]
+                || !_workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        double[][] activations = _workspace.activations;
+        double[] argument = _workspace.argument;
+
+        if (backgroundTerms == null
+                || Double.compare(inputs.getBackground(), inputBackground) != 0
+                || !(activationFunctions[0] instanceof Identity)) {
+            inputs.copyInto(activations[0]);
+            classifyInto(activations[0], outputs, _workspace);
+            return;
+        }
+
+        //expanded all the same, so that the workspace holds every layer
+        inputs.copyInto(activations[0]);
+
+        int[] indices = inputs.getIndices();
+        double[] offsets = inputs.getOffsets();
+        int fanin = layerSizes[0];
+        for (int j = 0; j < layerSizes[1]; j++) {
+            double sumProduct = backgroundTerms[j] + sparseDot(j * fanin, indices, offsets);
+            activations[1][j] = activate(1, sumProduct, argument);
+        }
+
+        for (int i = 2; i < layerSizes.length; i++) {
+            feedLayer(i, activations[i - 1], activations[i], argument);
+        }
+
+        System.arraycopy(activations[layerSizes.length - 1], 0, outputs, 0, outputs.length);
+    }
+
+    @Override
+    public void classifyBatch(double[] inputPatterns, int patternCount, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        int inputCount = layerSizes[0];
+        int outputCount = layerSizes[layerSizes.length - 1];
+
+        if (inputPatterns.length < patternCount * inputCount
+                || outputs.length < patternCount * outputCount
+                || !_workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        _workspace.ensureBatchCapacity(patternCount);
+        double[][] batchActivations = _workspace.batchActivations;
+        double[] argument = _workspace.argument;
+        int inputLength = patternCount * inputCount;
+
+        //input layer, the input matrix may already be the input layer's buffer
+        if (activationFunctions[0] instanceof Identity) {
+            if (inputPatterns != batchActivations[0])
+                System.arraycopy(inputPatterns, 0, batchActivations[0], 0, inputLength);
+        }
+        else if (scalarActivations[0] != null) {
+            for (int i = 0; i < inputLength; i++) {
+                batchActivations[0][i] = scalarActivations[0].apply(inputPatterns[i]);
+            }
+        }
+        else {
+            for (int i = 0; i < inputLength; i++) {
+                argument[0] = inputPatterns[i];
+                batchActivations[0][i] = activationFunctions[0].evaluate(argument);
+            }
+        }
+
+        for (int i = 1; i < layerSizes.length; i++) {
+            feedLayerBatch(i, batchActivations[i - 1], batchActivations[i], patternCount, argument);
+        }
+
+        System.arraycopy(batchActivations[layerSizes.length - 1], 0, outputs, 0, patternCount * outputCount);
+    }
+
+    @Override
+    public void classifyBatch(Dataset dataset, int from, int to, double[] outputs, Workspace _workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (dataset.getInputCount() != layerSizes[0] || !_workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        //gather the inputs straight into the input layer's batch buffer
+        _workspace.ensureBatchCapacity(to - from);
+        dataset.copyInputs(from, to, _workspace.batchActivations[0]);
+        classifyBatch(_workspace.batchActivations[0], to - from, outputs, _workspace);
+    }
+
+    @Override
+    public Workspace createWorkspace() {
+        return new Workspace(layerSizes);
+    }
+
+    @Override
+    public int getDimensionality() {
+        int dim = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            dim += layerSizes[i] * (layerSizes[i - 1] + 1);
+        }
+        return dim;
+    }
+
+    @Override
+    public double[] getWeightVector() {
+        double[] weightVector = new double[getDimensionality()];
+        int weightVectorIndex = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            int fanin = layerSizes[i - 1];
+            for (int j = 0; j < layerSizes[i]; j++) {
+                if (singlePrecision) {
+                    for (int k = 0; k < fanin; k++) {
+                        weightVector[weightVectorIndex++] = singleWeights[i][j * fanin + k];
+                    }
+                }
+                else {
+                    System.arraycopy(weights[i], j * fanin, weightVector, weightVectorIndex, fanin);
+                    weightVectorIndex += fanin;
+                }
+                weightVector[weightVectorIndex++] = bias(i, j);
+            }
+        }
+        return weightVector;
+    }
+
+    @Override
+    public void setWeightVector(double... _weightVector) throws UnequalArgsDimensionException {
+        if (_weightVector.length != getDimensionality())
+            throw new UnequalArgsDimensionException();
+
+        int weightVectorIndex = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            int fanin = layerSizes[i - 1];
+            for (int j = 0; j < layerSizes[i]; j++) {
+                if (singlePrecision) {
+                    for (int k = 0; k < fanin; k++) {
+                        singleWeights[i][j * fanin + k] = (float) _weightVector[weightVectorIndex++];
+                    }
+                    singleBiases[i][j] = (float) _weightVector[weightVectorIndex++];
+                }
+                else {
+                    System.arraycopy(_weightVector, weightVectorIndex, weights[i], j * fanin, fanin);
+                    weightVectorIndex += fanin;
+                    biases[i][j] = _weightVector[weightVectorIndex++];
+                }
+            }
+        }
+
+        updateBackgroundTerms();
+    }
+
+    @Override
+    public FrozenFFNeuralNet freeze() {
+        return new FrozenFFNeuralNet(config, getWeightVector());
+    }
+
+    public int getLayerCount() {
+        return layerSizes.length;
+    }
+
+    public int getNeuronCount(int layer) {
+        return layerSizes[layer];
+    }
+
+    public IFunction getActivationFunction(int layer) {
+        return activationFunctions[layer];
+    }
+
+    /**
+     * @param layer
+     * @return the activation function of the layer as an
+     * {@link IScalarActivation}, or null if it does not implement the
+     * primitive contract
+     */
+    public IScalarActivation getScalarActivation(int layer) {
+        return scalarActivations[layer];
+    }
+
+    public Precision getPrecision() {
+        return singlePrecision ? Precision.SINGLE : Precision.DOUBLE;
+    }
+
+    FFNeuralNetConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Propagates the error signals of a layer back through its weights, i.e.
+     * computes the transposed matrix-vector product
+     * <pre>
+     *  previousErrorSignals[k] = sum_j(w_jk * errorSignals[j])
+     * </pre> The result is not yet scaled by the derivative of the activation
+     * function of the previous layer.
+     *
+     * @param layer the layer the errorSignals belong to
+     * @param errorSignals
+     * @param previousErrorSignals receives one signal per neuron in layer - 1
+     */
+    public void propagateErrorSignals(int layer, double[] errorSignals, double[] previousErrorSignals) {
+        int fanin = layerSizes[layer - 1];
+        Arrays.fill(previousErrorSignals, 0, fanin, 0);
+
+        if (singlePrecision) {
+            float[] w = singleWeights[layer];
+            for (int j = 0; j < layerSizes[layer]; j++) {
+                double errorSignal = errorSignals[j];
+                int row = j * fanin;
+                for (int k = 0; k < fanin; k++) {
+                    previousErrorSignals[k] += w[row + k] * errorSignal;
+                }
+            }
+            return;
+        }
+
+        double[] w = weights[layer];
+        for (int j = 0; j < layerSizes[layer]; j++) {
+            KERNELS.axpy(errorSignals[j], w, j * fanin, previousErrorSignals, 0, fanin);
+        }
+    }
+
+    /**
+     * Propagates the error signals of a whole batch back through the weights
+     * of a layer, i.e. computes the matrix-matrix product of the row-major
+     * signal matrix, one row per pattern, and the weight matrix. Every row of
+     * weights is applied to all patterns before the next one is read, so that
+     * the weights are streamed once per batch rather than once per pattern.
+     * Each signal is summed in the same order as by
+     * {@link #propagateErrorSignals(int, double[], double[])}.
+     *
+     * @param layer the layer the errorSignals belong to
+     * @param errorSignals row-major signals of the layer
+     * @param previousErrorSignals receives the row-major signals of layer - 1
+     * @param patternCount
+     */
+    public void propagateErrorSignals(int layer, double[] errorSignals, double[] previousErrorSignals, int patternCount) {
+        int fanin = layerSizes[layer - 1];
+        int fanout = layerSizes[layer];
+        Arrays.fill(previousErrorSignals, 0, patternCount * fanin, 0);
+
+        for (int j = 0; j < fanout; j++) {
+            int row = j * fanin;
+            if (singlePrecision) {
+                float[] w = singleWeights[layer];
+                for (int p = 0; p < patternCount; p++) {
+                    double errorSignal = errorSignals[p * fanout + j];
+                    int offset = p * fanin;
+                    for (int k = 0; k < fanin; k++) {
+                        previousErrorSignals[offset + k] += w[row + k] * errorSignal;
+                    }
+                }
+            }
+            else {
+                for (int p = 0; p < patternCount; p++) {
+                    KERNELS.axpy(errorSignals[p * fanout + j], weights[layer], row, previousErrorSignals, p * fanin, fanin);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the given deltas to the weights of the layer. weightDeltas has the
+     * same row-major layout as the weight matrix of the layer.
+     *
+     * @param layer
+     * @param weightDeltas
+     * @param biasDeltas
+     */
+    public void updateWeights(int layer, double[] weightDeltas, double[] biasDeltas) {
+        if (layer == 1 && backgroundTerms != null) {
+            updateFirstLayer(weightDeltas, biasDeltas);
+            return;
+        }
+
+        if (singlePrecision) {
+            float[] w = singleWeights[layer];
+            float[] b = singleBiases[layer];
+            for (int i = 0; i < w.length; i++) {
+                w[i] += weightDeltas[i];
+            }
+            for (int i = 0; i < b.length; i++) {
+                b[i] += biasDeltas[i];
+            }
+        }
+        else {
+            KERNELS.axpy(1, weightDeltas, 0, weights[layer], 0, weights[layer].length);
+            KERNELS.axpy(1, biasDeltas, 0, biases[layer], 0, biases[layer].length);
+        }
+    }
+
+    /**
+     * Sets the input value that {@link #classifySparseInto(SparseInputs,
+     * double[], Workspace)} treats as background, and precomputes the
+     * contribution of background inputs to every neuron of the first hidden
+     * layer. The contribution is updated whenever the weights of that layer
+     * change.
+     *
+     * @param background
+     */
+    public void setInputBackground(double background) {
+        inputBackground = background;
+        weightSums = new double[layerSizes[1]];
+        backgroundTerms = new double[layerSizes[1]];
+        updateBackgroundTerms();
+    }
+
+    /**
+     * Computes the outputs of a hidden or output layer as a matrix-vector
+     * product of the layer's weights and the outputs of the previous layer.
+     *
+     * @param layer
+     * @param input outputs of layer - 1
+     * @param output receives the outputs of this layer
+     * @param argument scratch array used to call the activation function
+     * @throws UnequalArgsDimensionException
+     */
+    private void feedLayer(int layer, double[] input, double[] output, double[] argument) throws UnequalArgsDimensionException {
+        int fanin = input.length;
+
+        for (int j = 0; j < output.length; j++) {
+            //substract the bias
+            double sumProduct = dot(layer, j * fanin, input, 0, fanin) - bias(layer, j);
+            output[j] = activate(layer, sumProduct, argument);
+        }
+    }
+
+    /**
+     * Computes the outputs of a hidden or output layer for a whole batch as
+     * the matrix-matrix product of the batch inputs and the transposed weight
+     * matrix. The product is blocked over patterns and inputs, so that a tile
+     * of weights stays in cache while it is applied to a block of patterns.
+     * Because partial sums are accumulated per tile, results may differ from
+     * {@link #feedLayer} in the last bits.
+     *
+     * @param layer
+     * @param input row-major outputs of layer - 1, one row per pattern
+     * @param output receives the row-major outputs of this layer
+     * @param patternCount
+     * @param argument scratch array used to call the activation function
+     * @throws UnequalArgsDimensionException
+     */
+    private void feedLayerBatch(int layer, double[] input, double[] output, int patternCount, double[] argument)
+            throws UnequalArgsDimensionException {
+        int fanin = layerSizes[layer - 1];
+        int fanout = layerSizes[layer];
+        int outputLength = patternCount * fanout;
+
+        Arrays.fill(output, 0, outputLength, 0);
+
+        for (int k0 = 0; k0 < fanin; k0 += INPUT_BLOCK_SIZE) {
+            int k1 = Math.min(k0 + INPUT_BLOCK_SIZE, fanin);
+            for (int p0 = 0; p0 < patternCount; p0 += PATTERN_BLOCK_SIZE) {
+                int p1 = Math.min(p0 + PATTERN_BLOCK_SIZE, patternCount);
+                for (int j = 0; j < fanout; j++) {
+                    int row = j * fanin;
+                    for (int p = p0; p < p1; p++) {
+                        output[p * fanout + j] += dot(layer, row + k0, input, p * fanin + k0, k1 - k0);
+                    }
+                }
+            }
+        }
+
+        for (int p = 0, i = 0; p < patternCount; p++) {
+            for (int j = 0; j < fanout; j++, i++) {
+                //substract the bias
+                output[i] = activate(layer, output[i] - bias(layer, j), argument);
+            }
+        }
+    }
+
+    /**
+     * Computes the dot product of length weights of the given layer, starting
+     * at weightOffset, with the input elements starting at inputOffset.
+     */
+    private double dot(int layer, int weightOffset, double[] input, int inputOffset, int length) {
+        if (!singlePrecision)
+            return KERNELS.dot(input, inputOffset, weights[layer], weightOffset, length);
+
+        float[] w = singleWeights[layer];
+        if (doubleAccumulation) {
+            double sumProduct = 0;
+            for (int k = 0; k < length; k++) {
+                sumProduct += input[inputOffset + k] * w[weightOffset + k];
+            }
+            return sumProduct;
+        }
+
+        float sumProduct = 0;
+        for (int k = 0; k < length; k++) {
+            sumProduct += (float) input[inputOffset + k] * w[weightOffset + k];
+        }
+        return sumProduct;
+    }
+
+    /**
+     * Computes the dot product of the weights in the row of the first hidden
+     * layer starting at rowOffset with sparse input offsets.
+     */
+    private double sparseDot(int rowOffset, int[] indices, double[] offsets) {
+        double sumProduct = 0;
+        if (singlePrecision) {
+            float[] w = singleWeights[1];
+            for (int k = 0; k < indices.length; k++) {
+                sumProduct += offsets[k] * w[rowOffset + indices[k]];
+            }
+        }
+        else {
+            double[] w = weights[1];
+            for (int k = 0; k < indices.length; k++) {
+                sumProduct += offsets[k] * w[rowOffset + indices[k]];
+            }
+        }
+        return sumProduct;
+    }
+
+    /**
+     * Recomputes the background terms of the first hidden layer from its
+     * weights, see {@link #setInputBackground(double)}. The terms are updated
+     * incrementally as the weights change, which rounds differently, so a
+     * trainer that must reproduce its state from the weights alone, such as
+     * one resuming from a checkpoint, refreshes them at points it can
+     * restore.
+     */
+    public void refreshBackgroundTerms() {
+        updateBackgroundTerms();
+    }
+
+    //recomputes background * sum_k(w_jk) - bias_j for the first hidden layer
+    private void updateBackgroundTerms() {
+        if (backgroundTerms == null)
+            return;
+
+        int fanin = layerSizes[0];
+        for (int j = 0; j < layerSizes[1]; j++) {
+            double weightSum = 0;
+            for (int k = 0; k < fanin; k++) {
+                weightSum += singlePrecision ? singleWeights[1][j * fanin + k] : weights[1][j * fanin + k];
+            }
+            weightSums[j] = weightSum;
+            backgroundTerms[j] = inputBackground * weightSum - bias(1, j);
+        }
+    }
+
+    /**
+     * Adds the deltas to the weights of the first hidden layer, summing the
+     * change of every row on the way, so that only the weight sums and
+     * background terms of the neurons whose weights changed are updated and
+     * no row is summed again.
+     */
+    private void updateFirstLayer(double[] weightDeltas, double[] biasDeltas) {
+        int fanin = layerSizes[0];
+        for (int j = 0; j < layerSizes[1]; j++) {
+            int row = j * fanin;
+            double weightSumDelta = 0;
+            if (singlePrecision) {
+                float[] w = singleWeights[1];
+                for (int k = row; k < row + fanin; k++) {
+                    float previous = w[k];
+                    w[k] += weightDeltas[k];
+                    //the change of the stored weight, after rounding
+                    weightSumDelta += (double) w[k] - previous;
+                }
+                singleBiases[1][j] += biasDeltas[j];
+            }
+            else {
+                double[] w = weights[1];
+                for (int k = row; k < row + fanin; k++) {
+                    double previous = w[k];
+                    w[k] += weightDeltas[k];
+                    //the change of the stored weight, after rounding
+                    weightSumDelta += w[k] - previous;
+                }
+                biases[1][j] += biasDeltas[j];
+            }
+
+            if (weightSumDelta != 0 || biasDeltas[j] != 0) {
+                weightSums[j] += weightSumDelta;
+                backgroundTerms[j] = inputBackground * weightSums[j] - bias(1, j);
+            }
+        }
+    }
+
+    private double bias(int layer, int neuron) {
+        return singlePrecision ? singleBiases[layer][neuron] : biases[layer][neuron];
+    }
+
+    /**
+     * Applies the activation function of the layer, taking the primitive path
+     * when available.
+     */
+    private double activate(int layer, double netInput, double[] argument) throws UnequalArgsDimensionException {
+        if (scalarActivations[layer] != null)
+            return scalarActivations[layer].apply(netInput);
+
+        argument[0] = netInput;
+        return activationFunctions[layer].evaluate(argument);
+    }
+
+    //tile sizes of the blocked batch kernel, chosen so that a tile of inputs
+    //(16 x 128 doubles) and a few rows of weights fit in L1
+    private static final int PATTERN_BLOCK_SIZE = 16;
+    private static final int INPUT_BLOCK_SIZE = 128;
+    //vector kernels of the double precision layer operations; the single
+    //precision paths are left to the JIT
+    private static final IVectorKernels KERNELS = Kernels.get();
+
+    //topology the network was built from, used to take snapshots
+    private final FFNeuralNetConfig config;
+    private final int[] layerSizes;
+    private final IFunction[] activationFunctions;
+    //primitive view of activationFunctions, null where not available
+    private final IScalarActivation[] scalarActivations;
+    private final boolean singlePrecision;
+    private final boolean doubleAccumulation;
+    //row-major weight matrix per layer, one row per neuron, in either double
+    //or single precision (the other pair is null)
+    private final double[][] weights;
+    private final double[][] biases;
+    private final float[][] singleWeights;
+    private final float[][] singleBiases;
+    //used by classify, which is therefore not thread-safe
+    private final Workspace workspace;
+    //contribution of background inputs to the first hidden layer and the
+    //weight sum of every neuron it derives from, null until setInputBackground
+    //is called
+    private double inputBackground;
+    private double[] weightSums;
+    private double[] backgroundTerms;
+}
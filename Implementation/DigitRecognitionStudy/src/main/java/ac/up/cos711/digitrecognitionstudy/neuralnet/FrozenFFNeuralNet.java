@@ -0,0 +1,123 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetConfig;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+
+/**
+ * Immutable, stateless inference snapshot of an {@link IFFNeuralNet}, obtained
+ * through {@link IFFNeuralNet#freeze()}. The snapshot holds a private copy of
+ * the weights in flat storage that is never modified after construction, and
+ * keeps no per-call state: intermediate activations live in the caller-owned
+ * {@link Workspace}. Any number of threads may therefore classify patterns
+ * with one instance concurrently, without synchronisation, as long as each
+ * thread uses its own workspace.
+ *
+ * {@link #setWeightVector(double...)}, the only method that would modify the
+ * network, throws an {@link UnsupportedOperationException}.
+ *
+ * @author Abrie van Aardt
+ */
+public final class FrozenFFNeuralNet implements IFFNeuralNet {
+
+    /**
+     * @param config topology of the network
+     * @param weightVector weights of the network, as returned by
+     * {@link IFFNeuralNet#getWeightVector()}
+     */
+    FrozenFFNeuralNet(FFNeuralNetConfig config, double[] weightVector) {
+        FlatFFNeuralNet copy = new FlatFFNeuralNet(config);
+        try {
+            copy.setWeightVector(weightVector);
+        }
+        catch (UnequalArgsDimensionException e) {
+            throw new IllegalArgumentException("The weight vector does not match the topology.", e);
+        }
+        //the final field publishes the fully initialised copy to all threads
+        network = copy;
+    }
+
+    /**
+     * Thread-safe, but allocates a workspace on every call. Prefer
+     * {@link #classifyInto(double[], double[], Workspace)} with a workspace
+     * per thread.
+     */
+    @Override
+    public double[] classify(double... inputPattern) throws UnequalInputWeightException, UnequalArgsDimensionException {
+        double[] outputPattern = new double[network.getNeuronCount(network.getLayerCount() - 1)];
+        network.classifyInto(inputPattern, outputPattern, network.createWorkspace());
+        return outputPattern;
+    }
+
+    @Override
+    public void classifyInto(double[] inputPattern, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        network.classifyInto(inputPattern, outputs, workspace);
+    }
+
+    @Override
+    public void classifyBatch(double[] inputPatterns, int patternCount, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        network.classifyBatch(inputPatterns, patternCount, outputs, workspace);
+    }
+
+    @Override
+    public void classifyBatch(Dataset dataset, int from, int to, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        network.classifyBatch(dataset, from, to, outputs, workspace);
+    }
+
+    @Override
+    public Workspace createWorkspace() {
+        return network.createWorkspace();
+    }
+
+    @Override
+    public double[] getWeightVector() {
+        return network.getWeightVector();
+    }
+
+    /**
+     * @throws UnsupportedOperationException since the snapshot is immutable
+     */
+    @Override
+    public void setWeightVector(double... _weightVector) {
+        throw new UnsupportedOperationException("A frozen network cannot be modified.");
+    }
+
+    @Override
+    public int getDimensionality() {
+        return network.getDimensionality();
+    }
+
+    /**
+     * The snapshot is already immutable.
+     *
+     * @return this
+     */
+    @Override
+    public FrozenFFNeuralNet freeze() {
+        return this;
+    }
+
+    public int getLayerCount() {
+        return network.getLayerCount();
+    }
+
+    public int getNeuronCount(int layer) {
+        return network.getNeuronCount(layer);
+    }
+
+    public IFunction getActivationFunction(int layer) {
+        return network.getActivationFunction(layer);
+    }
+
+    FFNeuralNetConfig getConfig() {
+        return network.getConfig();
+    }
+
+    //never exposed, so that the weights cannot change after construction
+    private final FlatFFNeuralNet network;
+}
@@ -1,5 +1,6 @@
 package ac.up.cos711.digitrecognitionstudy.neuralnet;
 
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
 
@@ -23,6 +24,65 @@ public interface IFFNeuralNet {
     public double[] classify(double... inputPattern)
             throws UnequalInputWeightException, UnequalArgsDimensionException;
 
+    /**
+     * Computes class probabilities for the given input pattern into outputs,
+     * using the buffers of workspace for intermediate layer activations. No
+     * memory is allocated, which makes this the preferred method for
+     * classifying many patterns. After the call, workspace holds the
+     * activations of every layer for the pattern.
+     *
+     * @param inputPattern
+     * @param outputs receives the class probabilities
+     * @param workspace obtained from {@link #createWorkspace()}
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public void classifyInto(double[] inputPattern, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException;
+
+    /**
+     * Computes class probabilities for a batch of input patterns.
+     * inputPatterns is a row-major matrix with one row per pattern, and
+     * outputs receives a row-major matrix with one row of class probabilities
+     * per pattern. Implementations may compute whole layers for the batch at a
+     * time, so that the weights are reused across patterns while they are in
+     * cache. After the call, {@link Workspace#getBatchActivations(int)} holds
+     * the activations of every layer for the batch.
+     *
+     * @param inputPatterns row-major matrix of at least patternCount rows
+     * @param patternCount number of patterns in the batch
+     * @param outputs receives the class probabilities
+     * @param workspace obtained from {@link #createWorkspace()}
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public void classifyBatch(double[] inputPatterns, int patternCount, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException;
+
+    /**
+     * Computes class probabilities for the patterns in the range [from, to) of
+     * a dataset, as {@link #classifyBatch(double[], int, double[], Workspace)}
+     * does for a matrix of input patterns.
+     *
+     * @param dataset
+     * @param from index of the first pattern (inclusive)
+     * @param to index of the last pattern (exclusive)
+     * @param outputs receives the class probabilities, one row per pattern
+     * @param workspace obtained from {@link #createWorkspace()}
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public void classifyBatch(Dataset dataset, int from, int to, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException;
+
+    /**
+     * Allocates the buffers needed by
+     * {@link #classifyInto(double[], double[], Workspace)} for this network.
+     *
+     * @return a new workspace
+     */
+    public Workspace createWorkspace();
+
     /**
      * Return an array (vector) of the weights in the network in order of layer
      * occurrence.
@@ -50,12 +110,12 @@ public interface IFFNeuralNet {
     public int getDimensionality();
 
     /**
-     * Acquires a live reference to the underlying neurons in the network. This
-     * facilitates learning algorithms such as {@link BackPropogation} which
-     * requires knowledge of the network topology.
+     * Takes an immutable snapshot of the network for inference. The snapshot
+     * is unaffected by later changes to this network and can be used by many
+     * threads concurrently, see {@link FrozenFFNeuralNet}.
      *
-     * @return Zagged 2D array of Neurons
+     * @return immutable copy of this network
      */
-    public Neuron[][] getNetworkLayers();
+    public FrozenFFNeuralNet freeze();
 
 }
@@ -0,0 +1,23 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet;
+
+/**
+ * Interface to an {@link IFFNeuralNet} whose weights are stored in individual
+ * {@link Neuron} objects, such as {@link FFNeuralNet}. Networks that store
+ * their weights otherwise, such as {@link FlatFFNeuralNet} and the immutable
+ * snapshots, do not implement it.
+ *
+ * @author Abrie van Aardt
+ */
+public interface INeuronFFNeuralNet extends IFFNeuralNet {
+
+    /**
+     * Acquires a live reference to the underlying neurons in the network. This
+     * facilitates learning algorithms such as
+     * {@link ac.up.cos711.digitrecognitionstudy.neuralnet.training.BackPropagation}
+     * which requires knowledge of the network topology.
+     *
+     * @return Zagged 2D array of Neurons
+     */
+    public Neuron[][] getNetworkLayers();
+
+}
@@ -4,6 +4,10 @@ import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightExcep
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
 import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
 import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.IVectorKernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.Kernels;
+import java.util.Arrays;
 
 /**
  * This is an implementation of a neural network unit, or neuron. By default
@@ -17,16 +21,24 @@ public class Neuron {
     public Neuron() {
         weightVector = new double[0];        
         weightDeltaVector = new double[0];
-        activationFunction = new Sigmoid();
+        setActivationFunction(new Sigmoid());
     }
 
     public Neuron(IFunction _activationFunction) {
         this();
-        activationFunction = _activationFunction;
+        setActivationFunction(_activationFunction);
     }
 
     public void setActivationFunction(IFunction function) {
         activationFunction = function;
+        //take the primitive path whenever the function offers one
+        scalarActivation = function instanceof IScalarActivation
+                ? (IScalarActivation) function
+                : null;
+    }
+
+    public IFunction getActivationFunction() {
+        return activationFunction;
     }
 
     public void setWeightCount(int count) {
@@ -53,10 +65,55 @@ public class Neuron {
     public void setWeightDelta(int index, double value){
         weightDeltaVector[index] = value;
     }    
+
+    /**
+     * Acquires a live reference to the accumulated weight deltas, bias last,
+     * so that training algorithms can transform them in place before
+     * {@link #applyWeightDeltas()}. Handle with care.
+     *
+     * @return the weight deltas
+     */
+    public double[] getWeightDeltaVector() {
+        return weightDeltaVector;
+    }
     
     public double getOutput(){
         return output;
     }
+
+    /**
+     * Accumulates the weight deltas of one pattern, i.e. adds
+     * scaledErrorSignal * inputs[k] to the delta of every weight and
+     * -scaledErrorSignal to the delta of the bias, whose input is -1.
+     *
+     * @param scaledErrorSignal error signal multiplied by -learning rate
+     * @param inputs outputs of the previous layer
+     */
+    public void accumulateWeightDeltas(double scaledErrorSignal, double[] inputs) {
+        int biasIndex = weightVector.length - 1;
+        KERNELS.axpy(scaledErrorSignal, inputs, 0, weightDeltaVector, 0, biasIndex);
+        weightDeltaVector[biasIndex] -= scaledErrorSignal;
+    }
+
+    /**
+     * Adds errorSignal * w_k to previousErrorSignals[k] for every weight,
+     * excluding the bias, which propagates the error signal of this neuron to
+     * the previous layer.
+     *
+     * @param errorSignal
+     * @param previousErrorSignals
+     */
+    public void propagateErrorSignal(double errorSignal, double[] previousErrorSignals) {
+        KERNELS.axpy(errorSignal, weightVector, 0, previousErrorSignals, 0, weightVector.length - 1);
+    }
+
+    /**
+     * Adds the accumulated deltas to the weights and resets them.
+     */
+    public void applyWeightDeltas() {
+        KERNELS.axpy(1, weightDeltaVector, 0, weightVector, 0, weightVector.length);
+        Arrays.fill(weightDeltaVector, 0);
+    }
     
     /**
      * Augments the input signal using a weight vector. Then calculates an
@@ -73,10 +130,41 @@ public class Neuron {
             throw new UnequalInputWeightException();
         }
         
-        output = activationFunction.evaluate(aggregate(inputVector));
+        output = activate(aggregate(inputVector));
         return output;
     }
 
+    /**
+     * Feeds a single input signal to the neuron, as is done for input neurons,
+     * without wrapping it in an array first.
+     *
+     * @param input
+     * @return Output signal
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public double feed(double input) throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (weightVector.length == 0) {//input neuron (no weights, input is unchanged)
+            output = activate(input);
+        }
+        else if (weightVector.length == 2) {
+            output = activate(input * weightVector[0] - weightVector[1]);
+        }
+        else {
+            throw new UnequalInputWeightException();
+        }
+
+        return output;
+    }
+
+    private double activate(double netInput) throws UnequalArgsDimensionException {
+        if (scalarActivation != null)
+            return scalarActivation.apply(netInput);
+
+        argument[0] = netInput;
+        return activationFunction.evaluate(argument);
+    }
+
     /**
      * Calculates the net input to the neuron as the weighted sum of the input
      * signal. This is not implemented as an {@link IFunction} since the strict
@@ -91,9 +179,7 @@ public class Neuron {
 
         if (weightVector.length != 0) {
             //ignores the last element in weightVector, the bias
-            for (int i = 0; i < inputVector.length; i++) {
-                sumProduct += inputVector[i] * weightVector[i];
-            }
+            sumProduct = KERNELS.dot(inputVector, 0, weightVector, 0, inputVector.length);
             //substract the bias
             sumProduct -= weightVector[weightVector.length - 1];
         } else {//input neuron (no weights, input is unchanged)
@@ -109,5 +195,10 @@ public class Neuron {
     private double[] weightDeltaVector;
     //store neuron output to facilitate some training algorithms
     private double output;
+    //reused to pass the net input to the activation function without allocation
+    private final double[] argument = new double[1];
     private IFunction activationFunction;
+    //activationFunction as an IScalarActivation, or null if it is not one
+    private IScalarActivation scalarActivation;
+    private static final IVectorKernels KERNELS = Kernels.get();
 }
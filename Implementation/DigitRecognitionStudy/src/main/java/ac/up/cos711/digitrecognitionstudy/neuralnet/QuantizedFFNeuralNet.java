@@ -0,0 +1,410 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetConfig;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.util.Arrays;
+
+/**
+ * Immutable int8 inference model of a trained {@link IFFNeuralNet}, obtained
+ * through {@link #quantize(IFFNeuralNet, Dataset)}. Every weight is stored as
+ * a signed byte with one scale per neuron,
+ * <pre>
+ *  w_jk ≈ weightScale_j * qw_jk,   qw_jk in [-127, 127]
+ * </pre> and the input to every layer is quantized to an unsigned byte with a
+ * scale and zero point per layer, calibrated on a dataset,
+ * <pre>
+ *  a_k ≈ inputScale * qa_k + inputZero,   qa_k in [0, 255]
+ * </pre> The weighted sum of a neuron is then accumulated in an int and
+ * rescaled once:
+ * <pre>
+ *  net_j = weightScale_j * (inputScale * sum_k(qw_jk * qa_k)
+ *                           + inputZero * sum_k(qw_jk)) - bias_j
+ * </pre> Biases, activation functions and the outputs of every layer remain
+ * in double precision. The weights take an eighth of the memory of a double
+ * precision network.
+ *
+ * Because raw MNIST pixels are already bytes, patterns can also be classified
+ * directly from their pixels with
+ * {@link #classifyPixels(byte[], int, double[], Workspace)}, which skips the
+ * quantization of the input layer.
+ *
+ * Like {@link FrozenFFNeuralNet}, the model keeps no per-call state, so one
+ * instance can be used by many threads that each hold their own
+ * {@link Workspace}.
+ *
+ * @author Abrie van Aardt
+ */
+public final class QuantizedFFNeuralNet implements IFFNeuralNet {
+
+    /**
+     * Quantizes the weights of network and calibrates the input ranges of its
+     * layers on the activations produced by calibrationSet, typically the
+     * validation set.
+     *
+     * @param network trained network
+     * @param calibrationSet patterns representative of those to classify
+     * @return int8 model of the network
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public static QuantizedFFNeuralNet quantize(IFFNeuralNet network, Dataset calibrationSet)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (calibrationSet.size() == 0)
+            throw new IllegalArgumentException("Calibration requires at least one pattern.");
+
+        FrozenFFNeuralNet frozen = network.freeze();
+        int layerCount = frozen.getLayerCount();
+        double[] min = new double[layerCount];
+        double[] max = new double[layerCount];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+
+        //record the range of the outputs of every layer that feeds another
+        Workspace workspace = frozen.createWorkspace();
+        double[] outputs = new double[CALIBRATION_BATCH_SIZE * frozen.getNeuronCount(layerCount - 1)];
+        for (int from = 0; from < calibrationSet.size(); from += CALIBRATION_BATCH_SIZE) {
+            int to = Math.min(from + CALIBRATION_BATCH_SIZE, calibrationSet.size());
+            frozen.classifyBatch(calibrationSet, from, to, outputs, workspace);
+
+            for (int i = 0; i < layerCount - 1; i++) {
+                double[] activations = workspace.getBatchActivations(i);
+                int length = (to - from) * frozen.getNeuronCount(i);
+                for (int k = 0; k < length; k++) {
+                    min[i] = Math.min(min[i], activations[k]);
+                    max[i] = Math.max(max[i], activations[k]);
+                }
+            }
+        }
+
+        return new QuantizedFFNeuralNet(frozen, min, max);
+    }
+
+    private QuantizedFFNeuralNet(FrozenFFNeuralNet network, double[] min, double[] max) {
+        config = network.getConfig();
+        int layerCount = network.getLayerCount();
+        layerSizes = new int[layerCount];
+        activationFunctions = new IFunction[layerCount];
+        scalarActivations = new IScalarActivation[layerCount];
+        weights = new byte[layerCount][];
+        weightScales = new double[layerCount][];
+        rowSums = new int[layerCount][];
+        biases = new double[layerCount][];
+        inputScales = new double[layerCount];
+        inputZeros = new double[layerCount];
+
+        for (int i = 0; i < layerCount; i++) {
+            layerSizes[i] = network.getNeuronCount(i);
+            activationFunctions[i] = network.getActivationFunction(i);
+            if (activationFunctions[i] instanceof IScalarActivation)
+                scalarActivations[i] = (IScalarActivation) activationFunctions[i];
+        }
+
+        double[] weightVector = network.getWeightVector();
+        int weightVectorIndex = 0;
+        for (int i = 1; i < layerCount; i++) {
+            int fanin = layerSizes[i - 1];
+            weights[i] = new byte[layerSizes[i] * fanin];
+            weightScales[i] = new double[layerSizes[i]];
+            rowSums[i] = new int[layerSizes[i]];
+            biases[i] = new double[layerSizes[i]];
+
+            //the range of layer i - 1's outputs is the input range of layer i
+            inputZeros[i] = min[i - 1];
+            inputScales[i] = max[i - 1] > min[i - 1] ? (max[i - 1] - min[i - 1]) / INPUT_LEVELS : 1;
+
+            for (int j = 0; j < layerSizes[i]; j++) {
+                double maxMagnitude = 0;
+                for (int k = 0; k < fanin; k++) {
+                    maxMagnitude = Math.max(maxMagnitude, Math.abs(weightVector[weightVectorIndex + k]));
+                }
+                weightScales[i][j] = maxMagnitude > 0 ? maxMagnitude / WEIGHT_LEVELS : 1;
+
+                for (int k = 0; k < fanin; k++) {
+                    int q = (int) Math.round(weightVector[weightVectorIndex++] / weightScales[i][j]);
+                    weights[i][j * fanin + k] = (byte) q;
+                    rowSums[i][j] += q;
+                }
+                biases[i][j] = weightVector[weightVectorIndex++];
+            }
+        }
+
+        //a raw pixel p is the input Dataset.scale(p) = pixelZero + pixelScale * p
+        pixelZero = Dataset.scale(0);
+        pixelScale = (Dataset.scale(INPUT_LEVELS) - pixelZero) / INPUT_LEVELS;
+    }
+
+    /**
+     * Thread-safe, but allocates a workspace on every call. Prefer
+     * {@link #classifyInto(double[], double[], Workspace)} with a workspace
+     * per thread.
+     */
+    @Override
+    public double[] classify(double... inputPattern) throws UnequalInputWeightException, UnequalArgsDimensionException {
+        double[] outputPattern = new double[layerSizes[layerSizes.length - 1]];
+        classifyInto(inputPattern, outputPattern, createWorkspace());
+        return outputPattern;
+    }
+
+    @Override
+    public void classifyInto(double[] inputPattern, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (inputPattern.length != layerSizes[0]
+                || outputs.length != layerSizes[layerSizes.length - 1]
+                || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        double[][] activations = workspace.activations;
+        double[] argument = workspace.argument;
+
+        for (int i = 0; i < inputPattern.length; i++) {
+            activations[0][i] = activate(0, inputPattern[i], argument);
+        }
+
+        feedForward(workspace, outputs);
+    }
+
+    /**
+     * Classifies a pattern given as raw pixel intensities in [0, 255], such as
+     * those in the MNIST image files, which {@link Dataset#scale(int)} maps to
+     * the inputs of the network. If the input layer uses {@link Identity} the
+     * pixels are used as the quantized inputs of the first hidden layer as is.
+     *
+     * @param pixels
+     * @param offset index of the first pixel of the pattern
+     * @param outputs receives the class probabilities
+     * @param workspace obtained from {@link #createWorkspace()}
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public void classifyPixels(byte[] pixels, int offset, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (pixels.length - offset < layerSizes[0]
+                || outputs.length != layerSizes[layerSizes.length - 1]
+                || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        double[][] activations = workspace.activations;
+        double[] argument = workspace.argument;
+
+        if (!(activationFunctions[0] instanceof Identity)) {
+            for (int i = 0; i < layerSizes[0]; i++) {
+                activations[0][i] = activate(0, Dataset.scale(pixels[offset + i] & 0xFF), argument);
+            }
+            feedForward(workspace, outputs);
+            return;
+        }
+
+        //first hidden layer straight from the pixels, with the pixel scale
+        for (int i = 0; i < layerSizes[0]; i++) {
+            activations[0][i] = pixelZero + pixelScale * (pixels[offset + i] & 0xFF);
+        }
+        feedLayer(1, pixels, offset, pixelScale, pixelZero, activations[1], argument);
+
+        for (int i = 2; i < layerSizes.length; i++) {
+            byte[] quantizedInput = quantize(i, activations[i - 1], workspace);
+            feedLayer(i, quantizedInput, 0, inputScales[i], inputZeros[i], activations[i], argument);
+        }
+
+        System.arraycopy(activations[layerSizes.length - 1], 0, outputs, 0, outputs.length);
+    }
+
+    @Override
+    public void classifyBatch(double[] inputPatterns, int patternCount, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        int inputCount = layerSizes[0];
+        int outputCount = layerSizes[layerSizes.length - 1];
+
+        if (inputPatterns.length < patternCount * inputCount
+                || outputs.length < patternCount * outputCount
+                || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        workspace.ensureBatchCapacity(patternCount);
+        double[][] activations = workspace.activations;
+        double[][] batchActivations = workspace.batchActivations;
+        double[] argument = workspace.argument;
+
+        //the int8 kernel works on one pattern at a time
+        for (int p = 0; p < patternCount; p++) {
+            for (int i = 0; i < inputCount; i++) {
+                activations[0][i] = activate(0, inputPatterns[p * inputCount + i], argument);
+            }
+            feedForward(workspace, activations[layerSizes.length - 1]);
+
+            for (int i = 0; i < layerSizes.length; i++) {
+                System.arraycopy(activations[i], 0, batchActivations[i], p * layerSizes[i], layerSizes[i]);
+            }
+        }
+
+        System.arraycopy(batchActivations[layerSizes.length - 1], 0, outputs, 0, patternCount * outputCount);
+    }
+
+    @Override
+    public void classifyBatch(Dataset dataset, int from, int to, double[] outputs, Workspace workspace)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (dataset.getInputCount() != layerSizes[0] || !workspace.fits(layerSizes))
+            throw new UnequalArgsDimensionException();
+
+        workspace.ensureBatchCapacity(to - from);
+        dataset.copyInputs(from, to, workspace.batchActivations[0]);
+        classifyBatch(workspace.batchActivations[0], to - from, outputs, workspace);
+    }
+
+    @Override
+    public Workspace createWorkspace() {
+        return new Workspace(layerSizes);
+    }
+
+    /**
+     * @return the dequantized weights, in the order of
+     * {@link IFFNeuralNet#getWeightVector()}
+     */
+    @Override
+    public double[] getWeightVector() {
+        double[] weightVector = new double[getDimensionality()];
+        int weightVectorIndex = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            int fanin = layerSizes[i - 1];
+            for (int j = 0; j < layerSizes[i]; j++) {
+                for (int k = 0; k < fanin; k++) {
+                    weightVector[weightVectorIndex++] = weightScales[i][j] * weights[i][j * fanin + k];
+                }
+                weightVector[weightVectorIndex++] = biases[i][j];
+            }
+        }
+        return weightVector;
+    }
+
+    /**
+     * @throws UnsupportedOperationException since the model is immutable
+     */
+    @Override
+    public void setWeightVector(double... _weightVector) {
+        throw new UnsupportedOperationException("A quantized network cannot be modified.");
+    }
+
+    @Override
+    public int getDimensionality() {
+        int dim = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            dim += layerSizes[i] * (layerSizes[i - 1] + 1);
+        }
+        return dim;
+    }
+
+    /**
+     * @return a double precision snapshot of the dequantized weights
+     */
+    @Override
+    public FrozenFFNeuralNet freeze() {
+        return new FrozenFFNeuralNet(config, getWeightVector());
+    }
+
+    /**
+     * @return the number of bytes taken by the quantized weights and their
+     * scales, biases and row sums
+     */
+    public long getModelSize() {
+        long size = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            size += weights[i].length + 20L * layerSizes[i];
+        }
+        return size;
+    }
+
+    public int getLayerCount() {
+        return layerSizes.length;
+    }
+
+    public int getNeuronCount(int layer) {
+        return layerSizes[layer];
+    }
+
+    /**
+     * Quantizes the outputs of the input layer onwards and feeds them through
+     * the network, leaving the activations of every layer in the workspace.
+     */
+    private void feedForward(Workspace workspace, double[] outputs) throws UnequalArgsDimensionException {
+        double[][] activations = workspace.activations;
+        for (int i = 1; i < layerSizes.length; i++) {
+            byte[] quantizedInput = quantize(i, activations[i - 1], workspace);
+            feedLayer(i, quantizedInput, 0, inputScales[i], inputZeros[i], activations[i], workspace.argument);
+        }
+        if (outputs != activations[layerSizes.length - 1])
+            System.arraycopy(activations[layerSizes.length - 1], 0, outputs, 0, outputs.length);
+    }
+
+    /**
+     * Quantizes the input of the given layer to unsigned bytes with the
+     * calibrated scale and zero point, clamping values outside of the
+     * calibrated range.
+     */
+    private byte[] quantize(int layer, double[] input, Workspace workspace) {
+        byte[] quantized = workspace.quantizedBuffer(input.length);
+        double inverseScale = 1 / inputScales[layer];
+        double zero = inputZeros[layer];
+        for (int k = 0; k < input.length; k++) {
+            long q = Math.round((input[k] - zero) * inverseScale);
+            quantized[k] = (byte) Math.max(0, Math.min(INPUT_LEVELS, q));
+        }
+        return quantized;
+    }
+
+    /**
+     * Computes the outputs of a layer from its quantized input, accumulating
+     * the weighted sums in an int. With inputs in [0, 255] and weights in
+     * [-127, 127] the sum cannot overflow for fan-ins below 66000.
+     */
+    private void feedLayer(int layer, byte[] input, int inputOffset, double inputScale, double inputZero,
+            double[] output, double[] argument) throws UnequalArgsDimensionException {
+        byte[] w = weights[layer];
+        int fanin = layerSizes[layer - 1];
+        for (int j = 0; j < output.length; j++) {
+            int row = j * fanin;
+            int sumProduct = 0;
+            for (int k = 0; k < fanin; k++) {
+                sumProduct += w[row + k] * (input[inputOffset + k] & 0xFF);
+            }
+            double net = weightScales[layer][j] * (inputScale * sumProduct + inputZero * rowSums[layer][j])
+                    - biases[layer][j];
+            output[j] = activate(layer, net, argument);
+        }
+    }
+
+    private double activate(int layer, double netInput, double[] argument) throws UnequalArgsDimensionException {
+        if (activationFunctions[layer] instanceof Identity)
+            return netInput;
+        if (scalarActivations[layer] != null)
+            return scalarActivations[layer].apply(netInput);
+
+        argument[0] = netInput;
+        return activationFunctions[layer].evaluate(argument);
+    }
+
+    //largest magnitude of a quantized weight and largest quantized input
+    private static final int WEIGHT_LEVELS = 127;
+    private static final int INPUT_LEVELS = 255;
+    private static final int CALIBRATION_BATCH_SIZE = 64;
+
+    //topology of the network, used to take snapshots
+    private final FFNeuralNetConfig config;
+    private final int[] layerSizes;
+    private final IFunction[] activationFunctions;
+    private final IScalarActivation[] scalarActivations;
+    //row-major int8 weight matrix per layer, one row per neuron
+    private final byte[][] weights;
+    private final double[][] weightScales;
+    //sum of the quantized weights of every neuron, multiplies the zero point
+    private final int[][] rowSums;
+    private final double[][] biases;
+    //scale and zero point of the quantized input of every layer
+    private final double[] inputScales;
+    private final double[] inputZeros;
+    private final double pixelScale;
+    private final double pixelZero;
+}
@@ -0,0 +1,97 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet;
+
+/**
+ * Preallocated per-layer activation buffers for
+ * {@link IFFNeuralNet#classifyInto(double[], double[], Workspace)}. A workspace
+ * is obtained from {@link IFFNeuralNet#createWorkspace()} and can be reused for
+ * any number of patterns, so that classification allocates nothing in the
+ * steady state. A workspace is not thread-safe: every thread that classifies
+ * patterns should hold its own.
+ *
+ * @author Abrie van Aardt
+ */
+public class Workspace {
+
+    public Workspace(int... layerSizes) {
+        activations = new double[layerSizes.length][];
+        batchActivations = new double[layerSizes.length][];
+        for (int i = 0; i < layerSizes.length; i++) {
+            activations[i] = new double[layerSizes[i]];
+            batchActivations[i] = new double[0];
+        }
+    }
+
+    public int getLayerCount() {
+        return activations.length;
+    }
+
+    /**
+     * Acquires a live reference to the activations of the given layer, as
+     * computed by the last classification that used this workspace.
+     *
+     * @param layer
+     * @return activations of the layer
+     */
+    public double[] getActivations(int layer) {
+        return activations[layer];
+    }
+
+    /**
+     * Acquires a live reference to the activations of the given layer for the
+     * last batch classified using this workspace, stored row-major with one
+     * row per pattern.
+     *
+     * @param layer
+     * @return activations of the layer for every pattern in the batch
+     */
+    public double[] getBatchActivations(int layer) {
+        return batchActivations[layer];
+    }
+
+    /**
+     * Makes sure the batch buffers can hold the activations of patternCount
+     * patterns. The buffers only grow, so a workspace reused for batches of
+     * the same size allocates once.
+     */
+    void ensureBatchCapacity(int patternCount) {
+        if (patternCount <= batchCapacity)
+            return;
+        for (int i = 0; i < activations.length; i++) {
+            batchActivations[i] = new double[patternCount * activations[i].length];
+        }
+        batchCapacity = patternCount;
+    }
+
+    /**
+     * Returns a buffer of at least size bytes for the quantized activations of
+     * a layer, see {@link QuantizedFFNeuralNet}. The buffer is allocated on
+     * first use only, so other networks do not pay for it.
+     */
+    byte[] quantizedBuffer(int size) {
+        if (quantized.length < size)
+            quantized = new byte[size];
+        return quantized;
+    }
+
+    /**
+     * Checks whether this workspace was created for a network with the given
+     * layer sizes.
+     */
+    boolean fits(int[] layerSizes) {
+        if (layerSizes.length != activations.length)
+            return false;
+        for (int i = 0; i < layerSizes.length; i++) {
+            if (layerSizes[i] != activations[i].length)
+                return false;
+        }
+        return true;
+    }
+
+    final double[][] activations;
+    //row-major activations of a whole batch, one row per pattern
+    final double[][] batchActivations;
+    private int batchCapacity;
+    //reused to pass a net input to an activation function without allocation
+    final double[] argument = new double[1];
+    private byte[] quantized = new byte[0];
+}
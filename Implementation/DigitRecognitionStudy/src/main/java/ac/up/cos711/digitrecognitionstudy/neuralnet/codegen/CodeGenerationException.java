@@ -0,0 +1,15 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.codegen;
+
+/**
+ * Thrown when a specialised class cannot be generated for a topology, either
+ * because the topology is not supported or because no compiler is available
+ * at runtime.
+ *
+ * @author Abrie van Aardt
+ */
+public class CodeGenerationException extends Exception {
+
+    public CodeGenerationException(String message) {
+        super(message);
+    }
+}
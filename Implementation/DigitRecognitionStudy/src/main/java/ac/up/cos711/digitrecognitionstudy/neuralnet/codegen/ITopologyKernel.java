@@ -0,0 +1,27 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.codegen;
+
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+
+/**
+ * Forward pass specialised for one network topology, as generated by
+ * {@link TopologyCompiler}. Implementations are stateless; the weights and the
+ * activation buffers are passed in on every call.
+ *
+ * @author Abrie van Aardt
+ */
+public interface ITopologyKernel {
+
+    /**
+     * Feeds one input pattern through the network.
+     *
+     * @param input
+     * @param inputOffset index of the first element of the pattern in input
+     * @param weightVector weights of the network, in the order of
+     * {@link ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet#getWeightVector()}
+     * @param activations receives the activations of every layer
+     * @param activationFunctions used for the layers whose activation function
+     * is not inlined
+     */
+    public void feed(double[] input, int inputOffset, double[] weightVector,
+            double[][] activations, IScalarActivation[] activationFunctions);
+}
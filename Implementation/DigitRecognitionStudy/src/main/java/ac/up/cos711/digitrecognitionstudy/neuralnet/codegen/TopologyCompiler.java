@@ -0,0 +1,274 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.codegen;
+
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.IVectorKernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.Kernels;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates and compiles an {@link ITopologyKernel} for a fixed network
+ * topology. The generated source has every layer size and weight offset as a
+ * constant, inlines {@link Identity} and {@link Sigmoid} (with its λ as a
+ * constant) and fully unrolls small layers, such as the hidden and output
+ * layers of a 784-3-10 network, so that the JIT sees straight-line code
+ * without length checks or dynamic dispatch. Larger layers keep a loop over
+ * their neurons, with constant bounds, and compute weighted sums with the
+ * {@link Kernels vector kernels}.
+ *
+ * The source is compiled in memory with the system Java compiler, which is
+ * only available when running on a JDK. Kernels are cached per topology, so
+ * repeated simulations of the same experiment compile once.
+ *
+ * @author Abrie van Aardt
+ */
+public final class TopologyCompiler {
+
+    private TopologyCompiler() {
+    }
+
+    /**
+     * Acquires the kernel for the given topology, generating and compiling it
+     * on first use.
+     *
+     * @param layerSizes number of neurons per layer, input layer first
+     * @param activationFunctions activation function per layer
+     * @return kernel for the topology
+     * @throws CodeGenerationException if an activation function does not
+     * implement {@link IScalarActivation} or no compiler is available
+     */
+    public static ITopologyKernel compile(int[] layerSizes, IFunction[] activationFunctions)
+            throws CodeGenerationException {
+        String key = Arrays.toString(layerSizes) + signature(activationFunctions);
+
+        synchronized (CACHE) {
+            ITopologyKernel kernel = CACHE.get(key);
+            if (kernel == null) {
+                String className = "Topology_" + join(layerSizes, "_") + "_" + CACHE.size();
+                String source = generateSource(className, layerSizes, activationFunctions);
+                kernel = load(className, source);
+                CACHE.put(key, kernel);
+
+                Logger.getLogger(TopologyCompiler.class.getName())
+                        .log(Level.CONFIG, "Compiled kernel {0} for topology {1}.",
+                                new Object[]{className, join(layerSizes, "-")});
+            }
+            return kernel;
+        }
+    }
+
+    /**
+     * Generates the source of the kernel class for a topology.
+     *
+     * @param className simple name of the class
+     * @param layerSizes
+     * @param activationFunctions
+     * @return Java source
+     * @throws CodeGenerationException if an activation function does not
+     * implement {@link IScalarActivation}
+     */
+    public static String generateSource(String className, int[] layerSizes, IFunction[] activationFunctions)
+            throws CodeGenerationException {
+        for (IFunction function : activationFunctions) {
+            if (!(function instanceof IScalarActivation))
+                throw new CodeGenerationException(function.getClass().getSimpleName()
+                        + " does not implement IScalarActivation.");
+        }
+
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(GENERATED_PACKAGE).append(";\n\n")
+                .append("import ").append(IScalarActivation.class.getName()).append(";\n")
+                .append("import ").append(ITopologyKernel.class.getName()).append(";\n")
+                .append("import ").append(IVectorKernels.class.getName()).append(";\n")
+                .append("import ").append(Kernels.class.getName()).append(";\n\n")
+                .append("public final class ").append(className).append(" implements ITopologyKernel {\n\n")
+                .append("    private static final IVectorKernels KERNELS = Kernels.get();\n\n")
+                .append("    @Override\n")
+                .append("    public void feed(double[] in, int off, double[] w, double[][] a, IScalarActivation[] f) {\n");
+
+        //input layer
+        int inputCount = layerSizes[0];
+        if (activationFunctions[0] instanceof Identity) {
+            src.append("        System.arraycopy(in, off, a[0], 0, ").append(inputCount).append(");\n");
+        }
+        else {
+            src.append("        double[] a0 = a[0];\n")
+                    .append("        for (int k = 0; k < ").append(inputCount).append("; k++) {\n")
+                    .append("            double net = in[off + k];\n")
+                    .append("            a0[k] = ").append(activation(activationFunctions[0], 0)).append(";\n")
+                    .append("        }\n");
+        }
+        for (int i = 1; i < layerSizes.length; i++) {
+            src.append("        layer").append(i).append("(w, a[").append(i - 1).append("], a[")
+                    .append(i).append("], f);\n");
+        }
+        src.append("    }\n");
+
+        //one method per layer keeps each method small enough to be compiled
+        int offset = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            int fanin = layerSizes[i - 1];
+            int fanout = layerSizes[i];
+            String activation = activation(activationFunctions[i], i);
+
+            src.append("\n    private static void layer").append(i)
+                    .append("(double[] w, double[] x, double[] y, IScalarActivation[] f) {\n")
+                    .append("        double net;\n");
+
+            if (fanin * fanout <= UNROLL_LIMIT) {
+                for (int j = 0; j < fanout; j++) {
+                    int row = offset + j * (fanin + 1);
+                    src.append("        net = ");
+                    for (int k = 0; k < fanin; k++) {
+                        src.append("x[").append(k).append("] * w[").append(row + k).append("] + ");
+                    }
+                    src.append("-w[").append(row + fanin).append("];\n")
+                            .append("        y[").append(j).append("] = ").append(activation).append(";\n");
+                }
+            }
+            else {
+                src.append("        for (int j = 0, row = ").append(offset).append("; j < ").append(fanout)
+                        .append("; j++, row += ").append(fanin + 1).append(") {\n")
+                        .append("            net = KERNELS.dot(x, 0, w, row, ").append(fanin)
+                        .append(") - w[row + ").append(fanin).append("];\n")
+                        .append("            y[j] = ").append(activation).append(";\n")
+                        .append("        }\n");
+            }
+            src.append("    }\n");
+            offset += fanout * (fanin + 1);
+        }
+
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /**
+     * @return expression applying the activation function of layer to net
+     */
+    private static String activation(IFunction function, int layer) {
+        if (function.getClass() == Identity.class)
+            return "net";
+        //subclasses such as PiecewiseLinearSigmoid are not inlined
+        if (function.getClass() == Sigmoid.class)
+            return "1.0 / (1.0 + Math.exp(-" + literal(((Sigmoid) function).getLambda()) + " * net))";
+        return "f[" + layer + "].apply(net)";
+    }
+
+    private static String literal(double value) {
+        return "(" + Double.toString(value) + ")";
+    }
+
+    private static String signature(IFunction[] activationFunctions) {
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < activationFunctions.length; i++) {
+            signature.append(' ').append(activation(activationFunctions[i], i));
+        }
+        return signature.toString();
+    }
+
+    private static String join(int[] values, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                joined.append(separator);
+            joined.append(values[i]);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Compiles the source in memory and instantiates the class it defines.
+     */
+    private static ITopologyKernel load(String className, String source) throws CodeGenerationException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new CodeGenerationException("No Java compiler is available, a JDK is required.");
+
+        final String qualifiedName = GENERATED_PACKAGE + "." + className;
+        final ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+
+        JavaFileObject sourceFile = new SimpleJavaFileObject(
+                URI.create("string:///" + qualifiedName.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name.replace('.', '/')), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classBytes;
+                    }
+                };
+            }
+        };
+
+        //the generated class needs ITopologyKernel on its classpath
+        String classpath = System.getProperty("java.class.path");
+        try {
+            String location = new File(ITopologyKernel.class.getProtectionDomain()
+                    .getCodeSource().getLocation().toURI()).getPath();
+            classpath = location + File.pathSeparator + classpath;
+        }
+        catch (Exception e) {
+            //fall back to the classpath of the JVM
+        }
+
+        StringWriter diagnostics = new StringWriter();
+        Boolean success = compiler.getTask(diagnostics, fileManager, null,
+                Arrays.asList("-classpath", classpath, "-g:none"),
+                null, Collections.singletonList(sourceFile)).call();
+        if (!success)
+            throw new CodeGenerationException("Compilation of " + className + " failed: " + diagnostics);
+
+        try {
+            Class<?> kernelClass = new GeneratedClassLoader(ITopologyKernel.class.getClassLoader())
+                    .define(qualifiedName, classBytes.toByteArray());
+            return (ITopologyKernel) kernelClass.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            throw new CodeGenerationException("Loading of " + className + " failed: " + e);
+        }
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static final String GENERATED_PACKAGE = "ac.up.cos711.digitrecognitionstudy.neuralnet.codegen.generated";
+    //layers with at most this many weights are fully unrolled
+    private static final int UNROLL_LIMIT = 256;
+    private static final Map<String, ITopologyKernel> CACHE = new HashMap<>();
+}
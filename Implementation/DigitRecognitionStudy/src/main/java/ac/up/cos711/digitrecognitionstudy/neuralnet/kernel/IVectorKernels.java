@@ -0,0 +1,50 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.kernel;
+
+/**
+ * Contract for the elementary vector operations in the forward and backward
+ * passes. Implementations are obtained through {@link Kernels#get()}, which
+ * selects SIMD kernels where the JVM supports them and falls back to
+ * {@link ScalarKernels} otherwise.
+ *
+ * @author Abrie van Aardt
+ */
+public interface IVectorKernels {
+
+    /**
+     * Computes the dot product of length elements of a and b.
+     *
+     * @param a
+     * @param aOffset index of the first element of a
+     * @param b
+     * @param bOffset index of the first element of b
+     * @param length
+     * @return sum-product
+     */
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Computes y = alpha * x + y over length elements.
+     *
+     * @param alpha
+     * @param x
+     * @param xOffset index of the first element of x
+     * @param y updated in place
+     * @param yOffset index of the first element of y
+     * @param length
+     */
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * Scales error signals by the derivative of Sigmoid, computed from the
+     * outputs of the corresponding neurons:
+     * <pre>
+     *  signals[i] *= lambda * outputs[i] * (1 - outputs[i])
+     * </pre>
+     *
+     * @param lambda steepness of the Sigmoid
+     * @param outputs
+     * @param signals updated in place
+     * @param length
+     */
+    public void scaleBySigmoidDerivative(double lambda, double[] outputs, double[] signals, int length);
+}
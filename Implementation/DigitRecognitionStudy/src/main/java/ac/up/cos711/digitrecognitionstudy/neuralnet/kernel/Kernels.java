@@ -0,0 +1,54 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.kernel;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Selects the {@link IVectorKernels} implementation for this JVM. The SIMD
+ * kernels are built from src/main/java17 by the "simd" Maven profile (active
+ * on JDK 17 and later) and use the incubating Vector API, so they are only
+ * picked up when the JVM is started with
+ * <pre>
+ *  --add-modules jdk.incubator.vector
+ * </pre> On older JVMs, without the module, or when the system property
+ * digitrecognitionstudy.kernels is set to "scalar", {@link ScalarKernels} is
+ * used instead.
+ *
+ * @author Abrie van Aardt
+ */
+public final class Kernels {
+
+    private Kernels() {
+    }
+
+    /**
+     * @return the kernels selected for this JVM
+     */
+    public static IVectorKernels get() {
+        return INSTANCE;
+    }
+
+    private static IVectorKernels load() {
+        Logger logger = Logger.getLogger(Kernels.class.getName());
+
+        if (!"scalar".equals(System.getProperty(KERNELS_PROPERTY))) {
+            try {
+                IVectorKernels kernels = (IVectorKernels) Class.forName(SIMD_KERNELS).getDeclaredConstructor().newInstance();
+                //surface a missing Vector API module here rather than later
+                kernels.dot(new double[1], 0, new double[1], 0, 1);
+                logger.log(Level.CONFIG, "Using SIMD vector kernels.");
+                return kernels;
+            }
+            catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                logger.log(Level.CONFIG, "SIMD vector kernels unavailable ({0}), "
+                        + "using scalar kernels.", e.toString());
+            }
+        }
+
+        return new ScalarKernels();
+    }
+
+    public static final String KERNELS_PROPERTY = "digitrecognitionstudy.kernels";
+    private static final String SIMD_KERNELS = "ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.SimdKernels";
+    private static final IVectorKernels INSTANCE = load();
+}
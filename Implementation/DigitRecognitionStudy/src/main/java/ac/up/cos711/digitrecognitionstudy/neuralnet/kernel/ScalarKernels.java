@@ -0,0 +1,33 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.kernel;
+
+/**
+ * Plain loop implementation of {@link IVectorKernels}, which runs on any JVM
+ * and is left to the JIT to vectorise where it can.
+ *
+ * @author Abrie van Aardt
+ */
+public class ScalarKernels implements IVectorKernels {
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sumProduct = 0;
+        for (int i = 0; i < length; i++) {
+            sumProduct += a[aOffset + i] * b[bOffset + i];
+        }
+        return sumProduct;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void scaleBySigmoidDerivative(double lambda, double[] outputs, double[] signals, int length) {
+        for (int i = 0; i < length; i++) {
+            signals[i] *= lambda * outputs[i] * (1 - outputs[i]);
+        }
+    }
+}
@@ -1,12 +1,11 @@
 package ac.up.cos711.digitrecognitionstudy.neuralnet.metric;
 
 import ac.up.cos711.digitrecognitionstudy.data.Dataset;
-import ac.up.cos711.digitrecognitionstudy.data.Pattern;
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.Workspace;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.ThresholdOutOfBoundsException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
-import java.util.Iterator;
 
 /**
  * This class measures the % of correctly classified data patterns. The decision
@@ -43,21 +42,28 @@ public class ClassificationAccuracy implements INetworkError {
             throws UnequalInputWeightException, UnequalArgsDimensionException {
 
         int correctClassCount = 0;
+        int targetCount = testingSet.getTargetCount();
+        double[] outputs = new double[BATCH_SIZE * targetCount];
+        double[] targets = new double[BATCH_SIZE * targetCount];
+        Workspace workspace = network.createWorkspace();
 
-        Iterator<Pattern> testIter = testingSet.iterator();
-        while (testIter.hasNext()) {
-            Pattern p = testIter.next();
-            double[] outputs = network.classify(p.getInputs());
-            double[] targets = p.getTargets();
-            int correctNodeCount = 0;
+        //classify in batches, see IFFNeuralNet.classifyBatch
+        for (int from = 0; from < testingSet.size(); from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, testingSet.size());
+            network.classifyBatch(testingSet, from, to, outputs, workspace);
+            testingSet.copyTargets(from, to, targets);
 
-            for (int i = 0; i < outputs.length; i++) {
-                if (isCorrectClass(targets[i], outputs[i]))
-                    ++correctNodeCount;
-            }
+            for (int p = 0; p < to - from; p++) {
+                int correctNodeCount = 0;
+
+                for (int i = p * targetCount; i < (p + 1) * targetCount; i++) {
+                    if (isCorrectClass(targets[i], outputs[i]))
+                        ++correctNodeCount;
+                }
 
-            if (correctNodeCount == outputs.length)
-                ++correctClassCount;
+                if (correctNodeCount == targetCount)
+                    ++correctClassCount;
+            }
         }
 
         double percentage = correctClassCount / ((double) testingSet.size()) * 100.0;
@@ -70,4 +76,6 @@ public class ClassificationAccuracy implements INetworkError {
     }
 
     private static double RIGOR = 0.2;//must be within bounds
+    //number of patterns classified together
+    private static final int BATCH_SIZE = 64;
 }
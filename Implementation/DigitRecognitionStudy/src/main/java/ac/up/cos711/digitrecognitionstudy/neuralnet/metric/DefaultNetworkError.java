@@ -1,13 +1,12 @@
 package ac.up.cos711.digitrecognitionstudy.neuralnet.metric;
 
 import ac.up.cos711.digitrecognitionstudy.data.Dataset;
-import ac.up.cos711.digitrecognitionstudy.data.Pattern;
 import ac.up.cos711.digitrecognitionstudy.function.IFunction;
 import ac.up.cos711.digitrecognitionstudy.function.SquaredError;
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.Workspace;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
-import java.util.Iterator;
 
 /**
  * Network error that is used for Validation and Generalisation Tests. This
@@ -18,36 +17,60 @@ import java.util.Iterator;
  */
 public class DefaultNetworkError implements INetworkError {
 
+    /**
+     * Classifies the dataset in batches of {@link #BATCH_SIZE} patterns, see
+     * {@link IFFNeuralNet#classifyBatch(Dataset, int, int, double[], Workspace)}.
+     */
     @Override
     public double measure(IFFNeuralNet network, Dataset testingSet)
             throws UnequalInputWeightException, UnequalArgsDimensionException {
         double error = 0;
 
-        Iterator<Pattern> patterns = testingSet.iterator();
-        double[] outputs = new double[1];
-        double[] targets = new double[1];
-        
-        while (patterns.hasNext()) {
+        int targetCount = testingSet.getTargetCount();
+        double[] outputs = new double[BATCH_SIZE * targetCount];
+        double[] targets = new double[BATCH_SIZE * targetCount];
+        Workspace workspace = network.createWorkspace();
+
+        for (int from = 0; from < testingSet.size(); from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, testingSet.size());
+            network.classifyBatch(testingSet, from, to, outputs, workspace);
+            testingSet.copyTargets(from, to, targets);
 
-            Pattern p = patterns.next();
-            outputs = network.classify(p.getInputs());
-            targets = p.getTargets();
-            error += errorForPattern(targets, outputs);      
+            for (int i = 0; i < (to - from) * targetCount; i++) {
+                double difference = targets[i] - outputs[i];
+                error += difference * difference;
+            }
         }
 
-        error /= (testingSet.size() * outputs.length);
+        error /= (testingSet.size() * targetCount);
         
         return error;
     }
 
+    /**
+     * Sums the {@link SquaredError} over the outputs of a single pattern. The
+     * squared difference is computed inline rather than through
+     * {@link IFunction#evaluate(double...)}, which would allocate an argument
+     * array for every output.
+     *
+     * @param targets
+     * @param outputs
+     * @return sum of squared errors
+     * @throws UnequalArgsDimensionException
+     */
     public static double errorForPattern(double[] targets, double[] outputs) throws UnequalArgsDimensionException {
+        if (targets.length != outputs.length)
+            throw new UnequalArgsDimensionException();
+
         double sum = 0.0;
         for (int i = 0; i < outputs.length; i++) {
-            sum += outputError.evaluate(targets[i], outputs[i]);
+            double difference = targets[i] - outputs[i];
+            sum += difference * difference;
         }
         return sum;
     }    
-    
-    private static final IFunction outputError = new SquaredError();
+
+    //number of patterns classified together
+    private static final int BATCH_SIZE = 64;
 
 }
@@ -0,0 +1,201 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.metric;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.Workspace;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+/**
+ * Estimates the error measured by {@link DefaultNetworkError} from a growing
+ * random sample of the dataset, for use where the error only has to be
+ * compared with a threshold, such as the early stopping rule of
+ * BackPropagation. Patterns are drawn without replacement in batches, while
+ * the mean and variance of the per-pattern error are maintained in streaming
+ * fashion. Sampling stops as soon as the confidence interval of the mean,
+ * <pre>
+ *  mean +- z * sqrt(variance / n * (1 - n / N))
+ * </pre> lies entirely on one side of the threshold, or when the whole
+ * dataset has been sampled, in which case the estimate is exact.
+ *
+ * @author Abrie van Aardt
+ */
+public class SampledNetworkError {
+
+    public SampledNetworkError() {
+        Z = 1.96;
+        MIN_SAMPLE_SIZE = 512;
+    }
+
+    /**
+     * @param _z number of standard errors in the half-width of the confidence
+     * interval, e.g. 1.96 for 95% confidence
+     * @param _minSampleSize number of patterns sampled before the interval is
+     * trusted
+     * @param _random source of the samples
+     */
+    public SampledNetworkError(double _z, int _minSampleSize, Random _random) {
+        if (_z <= 0 || _minSampleSize < 2)
+            throw new IllegalArgumentException("A positive z and a minimum sample size of at least 2 are required.");
+        Z = _z;
+        MIN_SAMPLE_SIZE = _minSampleSize;
+        random = _random;
+    }
+
+    /**
+     * Estimates the error of the network on the dataset, sampling only as many
+     * patterns as are needed to tell whether it exceeds threshold. A threshold
+     * of {@link Double#POSITIVE_INFINITY} samples the minimum sample size.
+     *
+     * @param network
+     * @param dataset
+     * @param threshold
+     * @return estimated mean squared error per output
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    public double measure(IFFNeuralNet network, Dataset dataset, double threshold)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        int size = dataset.size();
+        int targetCount = dataset.getTargetCount();
+        if (indices == null || indices.length != size) {
+            indices = new int[size];
+            for (int i = 0; i < size; i++) {
+                indices[i] = i;
+            }
+        }
+        double[] inputs = new double[BATCH_SIZE * dataset.getInputCount()];
+        double[] outputs = new double[BATCH_SIZE * targetCount];
+        double[] targets = new double[BATCH_SIZE * targetCount];
+        Workspace workspace = network.createWorkspace();
+
+        //Welford's streaming mean and sum of squared deviations
+        int n = 0;
+        double mean = 0;
+        double deviation = 0;
+        halfWidth = Double.POSITIVE_INFINITY;
+
+        while (n < size) {
+            int to = Math.min(n + BATCH_SIZE, size);
+            //draw the next batch without replacement, see Fisher-Yates
+            for (int i = n; i < to; i++) {
+                int j = i + random.nextInt(size - i);
+                int swap = indices[i];
+                indices[i] = indices[j];
+                indices[j] = swap;
+            }
+
+            dataset.copyInputs(indices, n, to, inputs);
+            dataset.copyTargets(indices, n, to, targets);
+            network.classifyBatch(inputs, to - n, outputs, workspace);
+
+            for (int p = 0; p < to - n; p++) {
+                double error = 0;
+                for (int i = p * targetCount; i < (p + 1) * targetCount; i++) {
+                    double difference = targets[i] - outputs[i];
+                    error += difference * difference;
+                }
+                error /= targetCount;
+
+                double prevMean = mean;
+                mean += (error - mean) / (n + p + 1);
+                deviation += (error - mean) * (error - prevMean);
+            }
+            n = to;
+
+            if (n >= MIN_SAMPLE_SIZE && n < size) {
+                double variance = deviation / (n - 1);
+                //finite population correction, the interval vanishes at n = N
+                halfWidth = Z * Math.sqrt(variance / n * (1 - (double) n / size));
+                if (Math.abs(mean - threshold) > halfWidth)
+                    break;
+            }
+        }
+
+        if (n == size)
+            halfWidth = 0;
+        sampleSize = n;
+        return mean;
+    }
+
+    /**
+     * Writes the state that later samples are drawn from, the random number
+     * generator and the order the patterns were left in, so that training
+     * resumed from a checkpoint draws the same samples.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException {
+        //Random only exposes its state through serialisation
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+            objects.writeObject(random);
+        }
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+
+        out.writeInt(indices == null ? -1 : indices.length);
+        if (indices != null) {
+            for (int index : indices) {
+                out.writeInt(index);
+            }
+        }
+    }
+
+    /**
+     * Restores state written by {@link #writeState(DataOutput)}.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            random = (Random) objects.readObject();
+        }
+        catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid random number generator state.", e);
+        }
+
+        int length = in.readInt();
+        indices = length < 0 ? null : new int[length];
+        for (int i = 0; i < length; i++) {
+            indices[i] = in.readInt();
+        }
+    }
+
+    /**
+     * @return number of patterns sampled by the last call to measure
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return half-width of the confidence interval of the last estimate,
+     * 0 if the whole dataset was sampled
+     */
+    public double getHalfWidth() {
+        return halfWidth;
+    }
+
+    private final double Z;
+    private final int MIN_SAMPLE_SIZE;
+    private Random random = new Random(System.nanoTime());
+    //permutation of the pattern indices, reused across calls
+    private int[] indices;
+    private int sampleSize;
+    private double halfWidth;
+    //number of patterns classified together
+    private static final int BATCH_SIZE = 64;
+}
@@ -2,23 +2,51 @@ package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
 
 import ac.up.cos711.digitrecognitionstudy.data.Dataset;
 import ac.up.cos711.digitrecognitionstudy.data.Pattern;
+import ac.up.cos711.digitrecognitionstudy.data.SparseInputs;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
 import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.FlatFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.FrozenFFNeuralNet;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.INeuronFFNeuralNet;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.Neuron;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.Workspace;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.ClassificationAccuracy;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.DefaultNetworkError;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.INetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.SampledNetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.GradientDescent;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.IWeightUpdateRule;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.ThresholdOutOfBoundsException;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Implements the BackPropagation algorithm, assuming the Sigmoid activation
  function for hidden and output nodes. It is important that the dataset be
- * normalized for the active domain of Sigmoid.
+ * normalized for the active domain of Sigmoid. Derivatives are taken through
+ * {@link IScalarActivation} where the activation function implements it.
  *
  * @author Abrie van Aardt
  */
@@ -51,6 +79,133 @@ public class BackPropagation implements IFFNeuralNetTrainer {
         classificationAccuracy = new ClassificationAccuracy(_classificationRigor);
     }
 
+    /**
+     * Trains a {@link FlatFFNeuralNet} with an {@link Identity} input layer on
+     * sparse encodings of the input patterns relative to background (see
+     * {@link SparseInputs}), such as the -1.0 of background pixels. The first
+     * hidden layer is then computed with
+     * {@link FlatFFNeuralNet#classifySparseInto(SparseInputs, double[], Workspace)},
+     * and its weight deltas are accumulated for the non-background inputs
+     * only, with the background's share kept as one delta per neuron that is
+     * spread over its weights when they are updated. Other networks are
+     * trained on dense inputs as before.
+     *
+     * @param background
+     */
+    public void setSparseInputs(double background) {
+        useSparseInputs = true;
+        inputBackground = background;
+    }
+
+    /**
+     * Splits every bin of a {@link FlatFFNeuralNet}'s training set over the
+     * given number of threads. Each thread accumulates the weight deltas of a
+     * contiguous part of the bin with its own buffers, and the parts are
+     * summed in a fixed order before the weights are updated, so that
+     * training remains deterministic for a given seed and thread count. The
+     * result equals that of sequential training up to the rounding of the
+     * summation order. Larger bins give the threads more work between
+     * synchronisations. Networks of {@link Neuron} objects are always trained
+     * sequentially.
+     *
+     * @param _threads
+     */
+    public void setThreads(int _threads) {
+        if (_threads < 1)
+            throw new IllegalArgumentException("At least one thread is required.");
+        threads = _threads;
+    }
+
+    /**
+     * Seeds the random number generator used to initialise the weights and
+     * to shuffle the training set every epoch, making training reproducible.
+     *
+     * @param seed
+     */
+    public void setSeed(long _seed) {
+        seed = _seed;
+        rand = new Random(_seed);
+    }
+
+    /**
+     * Measures the validation error of every epoch on a snapshot of the
+     * weights, see {@link IFFNeuralNet#freeze()}, on a background thread while
+     * the next epoch trains, which hides most of the cost of validation. The
+     * stopping rule is then applied one epoch late: when it fires for an
+     * epoch, the epoch trained meanwhile is discarded by rolling the weights
+     * back to the snapshot. Training therefore ends with the same weights,
+     * errors and epoch count as without pipelining, at the cost of one
+     * wasted epoch when the network starts to overfit. A discarded epoch does
+     * not count towards the time to target either.
+     *
+     * @param pipelined
+     */
+    public void setPipelinedValidation(boolean pipelined) {
+        pipelinedValidation = pipelined;
+    }
+
+    /**
+     * Estimates the validation error of every epoch from a random sample of
+     * the validation set, drawn until its confidence interval decides the
+     * stopping rule, see {@link SampledNetworkError}. The reported validation
+     * error is then an estimate, and the number of patterns sampled is
+     * logged with every epoch. Ignored with pipelined validation, which
+     * measures the whole validation set in the background.
+     *
+     * @param _sampledNetworkError
+     */
+    public void setSampledValidation(SampledNetworkError _sampledNetworkError) {
+        sampledNetworkError = _sampledNetworkError;
+    }
+
+    /**
+     * Sets the rule that turns the weight deltas of every bin into weight
+     * changes, see {@link IWeightUpdateRule}. Defaults to
+     * {@link GradientDescent}. The rule's state is reset by every call to
+     * train.
+     *
+     * @param rule
+     */
+    public void setUpdateRule(IWeightUpdateRule rule) {
+        updateRule = rule;
+    }
+
+    /**
+     * Times the phases of every epoch and reports every epoch to the given
+     * stats. Without stats, which is the default, the clock is not read.
+     *
+     * @param _stats the stats to update, or null
+     */
+    public void setStats(TrainingStats _stats) {
+        stats = _stats;
+    }
+
+    /**
+     * Writes a {@link TrainingCheckpoint} to file every interval epochs, on a
+     * background thread, and once more when training completes. If file
+     * already exists when train is called, training resumes from it and
+     * continues exactly as it would have without the interruption, given the
+     * same network topology, training set in the same initial order,
+     * validation set and settings. A checkpoint written for another topology,
+     * training set size or settings is ignored and
+     * training starts from scratch. If the checkpoint was written when training
+     * completed, or has used up the epoch limit, its results are restored
+     * without training. Training completes when it reaches the acceptable
+     * training error or starts to overfit, so training that only stopped at
+     * the epoch limit can be resumed with a higher limit. Not supported
+     * with pipelined validation. With sampled validation the state of the
+     * sampler is restored too, so the same samples are drawn.
+     *
+     * @param file
+     * @param interval number of epochs between checkpoints
+     */
+    public void setCheckpoint(File file, int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("The checkpoint interval must be at least one epoch.");
+        checkpointFile = file;
+        checkpointInterval = interval;
+    }
+
     @Override
     public void train(IFFNeuralNet network, Dataset trainingset, Dataset validationset)
             throws UnequalInputWeightException, UnequalArgsDimensionException {
@@ -58,69 +213,249 @@ public class BackPropagation implements IFFNeuralNetTrainer {
         Logger.getLogger(getClass().getName())
                 .log(Level.INFO, "Started neural network training...");
 
-        initialise(network);
+        //the flat network is trained through its layer operations, any other
+        //through its neurons
+        FlatFFNeuralNet flatNetwork = null;
+        INeuronFFNeuralNet neuronNetwork = null;
+        if (network instanceof FlatFFNeuralNet) {
+            flatNetwork = (FlatFFNeuralNet) network;
+            initialise(flatNetwork);
+        }
+        else if (network instanceof INeuronFFNeuralNet) {
+            neuronNetwork = (INeuronFFNeuralNet) network;
+            initialise(neuronNetwork);
+        }
+        else
+            throw new IllegalArgumentException("BackPropagation cannot train a "
+                    + network.getClass().getSimpleName() + ", which has neither flat weights nor neurons.");
+
+        //see setCheckpoint
+        checkpointFingerprint = checkpointFile != null ? fingerprint(network, trainingset) : null;
+        TrainingCheckpoint checkpoint = readCheckpoint(network, trainingset);
+        if (checkpoint != null && (checkpoint.complete || checkpoint.epoch >= MAX_EPOCH)) {
+            network.setWeightVector(checkpoint.weights);
+            trainingError = checkpoint.trainingError;
+            validationError = checkpoint.validationError;
+            timeToTarget = checkpoint.timeToTarget;
+            lastEpoch = checkpoint.epoch;
+
+            Logger.getLogger(getClass().getName())
+                    .log(Level.INFO, "Training already stopped after {0} epoch(s) according to {1}.",
+                            new Object[]{checkpoint.epoch, checkpointFile});
+            return;
+        }
+
+        //one accumulator per thread, see setThreads
+        GradientAccumulator[] accumulators = null;
+        ExecutorService workers = null;
+        if (flatNetwork != null) {
+            boolean sparse = useSparseInputs && flatNetwork.getActivationFunction(0) instanceof Identity;
+            if (sparse)
+                flatNetwork.setInputBackground(inputBackground);
+            accumulators = new GradientAccumulator[threads];
+            for (int i = 0; i < threads; i++) {
+                accumulators[i] = new GradientAccumulator(flatNetwork, LEARNING_RATE, sparse, inputBackground);
+                accumulators[i].setStats(stats);
+            }
+            //only the first accumulator updates the weights
+            accumulators[0].setUpdateRule(updateRule);
+            if (threads > 1)
+                workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory(stats));
+        }
+
+        //buffers of the backward pass through Neuron objects, see backPropogateError
+        Neuron[][] layers = null;
+        double[][] layerOutputs = null;
+        double[][] errorSignals = null;
+        if (neuronNetwork != null) {
+            layers = neuronNetwork.getNetworkLayers();
+            layerOutputs = new double[layers.length][];
+            errorSignals = new double[layers.length][];
+            for (int i = 0; i < layers.length; i++) {
+                layerOutputs[i] = new double[layers[i].length];
+                errorSignals[i] = new double[layers[i].length];
+            }
+            initialiseUpdateRule(layers);
+        }
 
-        double prevAvg;
-        double avgValidationError = 0;
-        double devValidationError = 0;
-        double stdDevValidationError = 0;
+        ValidationHistory history = new ValidationHistory();
+        boolean overfitting = false;
         validationError = 0;
-        double[] outputs = new double[1];
-        double[] targets;
+        //see setPipelinedValidation
+        ExecutorService validator = pipelinedValidation
+                ? Executors.newSingleThreadExecutor(new WorkerThreadFactory(stats))
+                : null;
+        PendingValidation pending = null;
+        double[] outputs = new double[trainingset.getTargetCount()];
+        //every pattern is read into the same buffers, see Pattern.copyInputsInto
+        double[] inputs = new double[trainingset.getInputCount()];
+        double[] targets = new double[trainingset.getTargetCount()];
+        Workspace workspace = network.createWorkspace();
 
         int epoch = 0;
         int patternNumber = 1;
         long duration = System.nanoTime();
+        timeToTarget = Double.NaN;
 
-        do {
-            ++epoch;
-            
-            //prevent memorisation of pattern order
-            trainingset.shuffle();
-            Iterator<Pattern> patterns = trainingset.iterator();
-            trainingError = 0;            
-            patternNumber = 1;
-            
-            while (patterns.hasNext()) {
-                Pattern p = patterns.next();
-                targets = p.getTargets();
-                outputs = network.classify(p.getInputs());
-                trainingError += DefaultNetworkError.errorForPattern(targets, outputs);
-                backPropogateError(network, targets, outputs);
-                if (patternNumber % BIN_SIZE == 0)
-                    triggerWeightUpdates(network);
-                ++patternNumber;
+        ExecutorService checkpointWriter = null;
+        int[] initialPositions = null;
+        if (checkpointFile != null) {
+            if (pipelinedValidation) {
+                Logger.getLogger(getClass().getName())
+                        .log(Level.WARNING, "Checkpoints are not written with pipelined validation.");
             }
+            else {
+                checkpointWriter = Executors.newSingleThreadExecutor(new WorkerThreadFactory(stats));
+                initialPositions = positionsOf(trainingset);
+            }
+        }
+        if (checkpoint != null) {
+            epoch = checkpoint.epoch;
+            duration -= checkpoint.elapsedNanos;
+            restoreCheckpoint(checkpoint, network, trainingset, history);
+
+            Logger.getLogger(getClass().getName())
+                    .log(Level.INFO, "Resumed training after epoch {0} from {1}.",
+                            new Object[]{epoch, checkpointFile});
+        }
+
+        try {
+            do {
+                ++epoch;
+                if (stats != null)
+                    stats.startEpoch();
             
-            //if last few patterns did not fill a bin, trigger a weight update
-            if (trainingset.size() % BIN_SIZE != 0)
-                triggerWeightUpdates(network);
+                //prevent memorisation of pattern order
+                long start = startTiming();
+                trainingset.shuffle(rand);
+                lap(TrainingStats.Phase.SHUFFLE, start);
+                Iterator<Pattern> patterns = trainingset.iterator();
+                trainingError = 0;            
+                patternNumber = 1;
             
-            trainingError /= (trainingset.size() * outputs.length);
+                if (flatNetwork != null) {
+                    //as setWeightVector does when training resumes from a checkpoint
+                    flatNetwork.refreshBackgroundTerms();
+                    trainingError = trainEpoch(patterns, accumulators, workers);
+                }
+                else {
+                    while (patterns.hasNext()) {
+                        Pattern p = patterns.next();
+                        if (p.getInputCount() != inputs.length || p.getTargetCount() != targets.length)
+                            throw new UnequalArgsDimensionException();
+                        p.copyTargetsInto(targets, 0);
+                        start = startTiming();
+                        p.copyInputsInto(inputs, 0);
+                        network.classifyInto(inputs, outputs, workspace);
+                        start = lap(TrainingStats.Phase.FORWARD, start);
+                        trainingError += DefaultNetworkError.errorForPattern(targets, outputs);
+                        backPropogateError(layers, targets, outputs, layerOutputs, errorSignals);
+                        start = lap(TrainingStats.Phase.BACKWARD, start);
+                        if (patternNumber % BIN_SIZE == 0) {
+                            triggerWeightUpdates(layers);
+                            lap(TrainingStats.Phase.UPDATE, start);
+                        }
+                        ++patternNumber;
+                    }
+
+                    //if last few patterns did not fill a bin, trigger a weight update
+                    if (trainingset.size() % BIN_SIZE != 0) {
+                        start = startTiming();
+                        triggerWeightUpdates(layers);
+                        lap(TrainingStats.Phase.UPDATE, start);
+                    }
+                }
             
-            //calculate running average of validation and standard deviation
-            prevAvg = avgValidationError;
-            validationError = defaultNetworError.measure(network, validationset);
-            avgValidationError += (validationError - avgValidationError)/epoch;
-            devValidationError += (validationError - avgValidationError) * (validationError - prevAvg);            
-            stdDevValidationError = Math.sqrt(devValidationError/epoch);       
+                trainingError /= (trainingset.size() * outputs.length);
+                double reachedTarget = Double.NaN;
+                if (Double.isNaN(timeToTarget) && trainingError <= ACCEPTABLE_TRAINING_ERROR)
+                    reachedTarget = (System.nanoTime() - duration) / 1e9;
             
-            Logger.getLogger(getClass().getName())
-                .log(Level.FINER, "Epoch {0}: E_t = {1}, E_v = {2}, E_v` = {3}, stdDev(E_v) = {4}",
-                        new Object[]{
-                            epoch,                            
-                            trainingError,
-                            validationError,
-                            avgValidationError,
-                            stdDevValidationError
+                if (validator == null) {
+                    if (!Double.isNaN(reachedTarget))
+                        timeToTarget = reachedTarget;
+                    start = startTiming();
+                    int sampleSize = validationset.size();
+                    if (sampledNetworkError != null) {
+                        //sample just enough to decide the stopping rule
+                        validationError = sampledNetworkError.measure(network, validationset,
+                                history.getOverfittingThreshold());
+                        sampleSize = sampledNetworkError.getSampleSize();
+                    }
+                    else
+                        validationError = defaultNetworError.measure(network, validationset);
+                    lap(TrainingStats.Phase.VALIDATION, start);
+                    history.add(validationError);
+                    logEpoch(epoch, trainingError, history, sampleSize);
+                    overfitting = history.isOverfitting();
+
+                    if (checkpointWriter != null && epoch % checkpointInterval == 0)
+                        writeCheckpoint(checkpointWriter, captureCheckpoint(network, trainingset,
+                                initialPositions, epoch, history, System.nanoTime() - duration, false));
+                }
+                else {
+                    //validate a snapshot of this epoch while the next one trains
+                    PendingValidation current = new PendingValidation(
+                            network.freeze(), validationset, trainingError, validator, stats);
+
+                    //apply the stopping rule to the previous epoch, one epoch late
+                    if (pending != null) {
+                        validationError = pending.await();
+                        history.add(validationError);
+                        logEpoch(epoch - 1, pending.trainingError, history, validationset.size());
+                        if (history.isOverfitting()) {
+                            //training would have stopped there, so discard this epoch
+                            current.cancel();
+                            network.setWeightVector(pending.snapshot.getWeightVector());
+                            trainingError = pending.trainingError;
+                            overfitting = true;
+                            --epoch;
+
+                            Logger.getLogger(getClass().getName())
+                                    .log(Level.FINE, "Rolled back to the weights of epoch {0}.", epoch);
+                            //the epoch trained since is discarded, its time included
+                            if (stats != null)
+                                stats.endEpoch(epoch, trainingset.size(), trainingError, validationError);
+                            break;
                         }
-                );
+                    }
+                    //the epoch is kept, so it counts towards the time to target
+                    if (!Double.isNaN(reachedTarget))
+                        timeToTarget = reachedTarget;
+                    pending = current;
+
+                    //there is no next epoch to overlap with the last validation
+                    if (trainingError <= ACCEPTABLE_TRAINING_ERROR || epoch >= MAX_EPOCH) {
+                        validationError = pending.await();
+                        history.add(validationError);
+                        logEpoch(epoch, trainingError, history, validationset.size());
+                    }
+                }
+
+                if (stats != null)
+                    stats.endEpoch(epoch, trainingset.size(), trainingError, validationError);
+            }
+            while (trainingError > ACCEPTABLE_TRAINING_ERROR
+                    && !overfitting
+                    && epoch < MAX_EPOCH);
+
+            //the final checkpoint must be on disk before train returns
+            if (checkpointWriter != null)
+                awaitCheckpoint(writeCheckpoint(checkpointWriter, captureCheckpoint(network, trainingset,
+                        initialPositions, epoch, history, System.nanoTime() - duration,
+                        trainingError <= ACCEPTABLE_TRAINING_ERROR || overfitting)));
+        }
+        finally {
+            if (workers != null)
+                workers.shutdown();
+            if (validator != null)
+                validator.shutdownNow();
+            if (checkpointWriter != null)
+                checkpointWriter.shutdown();
         }
-        while (trainingError > ACCEPTABLE_TRAINING_ERROR 
-                && (validationError <= (avgValidationError + stdDevValidationError))
-                && epoch < MAX_EPOCH);
 
         duration = System.nanoTime() - duration;      
+        lastEpoch = epoch;
 
         Logger.getLogger(getClass().getName())
                 .log(Level.INFO, "Training completed in {0} epoch(s) ({1}s) with "
@@ -132,6 +467,17 @@ public class BackPropagation implements IFFNeuralNetTrainer {
                             validationError
                         }
                 );
+
+        Logger.getLogger(getClass().getName())
+                .log(Level.INFO, Double.isNaN(timeToTarget)
+                        ? "Acceptable E_t of {0} not reached using {1}."
+                        : "Acceptable E_t of {0} reached after {2}s using {1}.",
+                        new Object[]{
+                            ACCEPTABLE_TRAINING_ERROR,
+                            updateRule,
+                            timeToTarget
+                        }
+                );
     }
     
     public double getValidationError(){
@@ -141,85 +487,421 @@ public class BackPropagation implements IFFNeuralNetTrainer {
     public double getTrainingError(){
         return trainingError;
     }
+
+    /**
+     * @return wall-clock seconds from the start of the last call to train
+     * until the training error first reached the acceptable training error,
+     * or NaN if it never did
+     */
+    public double getTimeToTarget() {
+        return timeToTarget;
+    }
+
+    /**
+     * @return the number of epochs the network had been trained for when the
+     * last call to train returned, including those restored from a checkpoint
+     */
+    public int getEpoch() {
+        return lastEpoch;
+    }
     
-    private void backPropogateError(IFFNeuralNet network, double[] targets, double[] outputs) {
-        //obtain neurons
-        Neuron[][] layers = network.getNetworkLayers();
+    /**
+     * Tells whether train would only restore the results of the checkpoint
+     * set with {@link #setCheckpoint(File, int)}, because it was written for
+     * the same topology, training set size and settings when training
+     * completed or used up the epoch limit, and whether those results have
+     * been recorded since, see {@link TrainingCheckpoint#markRecorded(File)}.
+     * Training with such a checkpoint can be skipped.
+     *
+     * @param network
+     * @param trainingset
+     * @return false if there is no such checkpoint or it cannot be read
+     */
+    public boolean hasRecordedCheckpoint(IFFNeuralNet network, Dataset trainingset) {
+        if (checkpointFile == null)
+            return false;
+        try {
+            return TrainingCheckpoint.isRecorded(checkpointFile, fingerprint(network, trainingset), MAX_EPOCH);
+        }
+        catch (IOException e) {
+            //train will report why the checkpoint cannot be resumed
+            return false;
+        }
+    }
+
+    /**
+     * Describes everything a checkpoint depends on apart from the epoch
+     * limit: the network topology, the size of the training set and the
+     * settings of training.
+     */
+    private String fingerprint(IFFNeuralNet network, Dataset trainingset) {
+        FrozenFFNeuralNet topology = network.freeze();
+        StringBuilder fingerprint = new StringBuilder(network.getClass().getSimpleName());
+        for (int i = 0; i < topology.getLayerCount(); i++) {
+            fingerprint.append(i == 0 ? " " : "-").append(topology.getNeuronCount(i));
+        }
+        for (int i = 0; i < topology.getLayerCount(); i++) {
+            fingerprint.append(i == 0 ? " " : ",").append(topology.getActivationFunction(i).getClass().getSimpleName());
+        }
+        if (network instanceof FlatFFNeuralNet)
+            fingerprint.append(' ').append(((FlatFFNeuralNet) network).getPrecision());
 
+        fingerprint
+                .append(", ").append(trainingset.size()).append(" patterns")
+                .append(", learning rate ").append(LEARNING_RATE)
+                .append(", bin size ").append(BIN_SIZE)
+                .append(", acceptable E_t ").append(ACCEPTABLE_TRAINING_ERROR)
+                .append(", ").append(updateRule)
+                .append(", seed ").append(seed != null ? seed.toString() : "none")
+                .append(", ").append(threads).append(" thread(s)");
+        if (useSparseInputs)
+            fingerprint.append(", sparse inputs on ").append(inputBackground);
+        if (sampledNetworkError != null)
+            fingerprint.append(", sampled validation");
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return the checkpoint to resume from, or null if there is none or it
+     * does not match the network, training set and settings
+     */
+    private TrainingCheckpoint readCheckpoint(IFFNeuralNet network, Dataset trainingset) {
+        if (checkpointFile == null || !checkpointFile.exists())
+            return null;
+
+        try {
+            TrainingCheckpoint checkpoint = TrainingCheckpoint.read(checkpointFile);
+            if (!checkpoint.fingerprint.equals(checkpointFingerprint))
+                throw new IOException("Checkpoint was written for " + checkpoint.fingerprint
+                        + ", not for " + checkpointFingerprint + ".");
+            if (checkpoint.weights.length != network.getDimensionality()
+                    || checkpoint.order.length != trainingset.size())
+                throw new IOException("Checkpoint does not match the network or training set.");
+            return checkpoint;
+        }
+        catch (IOException e) {
+            Logger.getLogger(getClass().getName())
+                    .log(Level.WARNING, "Training from scratch, cannot resume from " + checkpointFile, e);
+            return null;
+        }
+    }
+
+    private void restoreCheckpoint(TrainingCheckpoint checkpoint, IFFNeuralNet network,
+            Dataset trainingset, ValidationHistory history) throws UnequalArgsDimensionException {
+        network.setWeightVector(checkpoint.weights);
+        trainingset.permute(checkpoint.order);
+        trainingError = checkpoint.trainingError;
+        validationError = checkpoint.validationError;
+        timeToTarget = checkpoint.timeToTarget;
+        history.count = checkpoint.historyCount;
+        history.last = checkpoint.historyLast;
+        history.average = checkpoint.historyAverage;
+        history.deviation = checkpoint.historyDeviation;
+        history.stdDeviation = checkpoint.historyStdDeviation;
+
+        try {
+            rand = TrainingCheckpoint.deserialiseRandom(checkpoint.randomState);
+            updateRule.readState(new DataInputStream(new ByteArrayInputStream(checkpoint.updateRuleState)));
+            if (sampledNetworkError != null)
+                sampledNetworkError.readState(new DataInputStream(new ByteArrayInputStream(checkpoint.samplerState)));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Corrupt checkpoint " + checkpointFile, e);
+        }
+    }
+
+    /**
+     * Copies the training state at the end of an epoch, so that the copy can
+     * be written while training continues.
+     */
+    private TrainingCheckpoint captureCheckpoint(IFFNeuralNet network, Dataset trainingset,
+            int[] initialPositions, int epoch, ValidationHistory history,
+            long elapsedNanos, boolean complete) {
+        TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+        checkpoint.fingerprint = checkpointFingerprint;
+        checkpoint.complete = complete;
+        checkpoint.epoch = epoch;
+        checkpoint.trainingError = trainingError;
+        checkpoint.validationError = validationError;
+        checkpoint.timeToTarget = timeToTarget;
+        checkpoint.elapsedNanos = elapsedNanos;
+        checkpoint.historyCount = history.count;
+        checkpoint.historyLast = history.last;
+        checkpoint.historyAverage = history.average;
+        checkpoint.historyDeviation = history.deviation;
+        checkpoint.historyStdDeviation = history.stdDeviation;
+        checkpoint.weights = network.getWeightVector();
+
+        checkpoint.order = trainingset.getStorageOrder();
+        for (int i = 0; i < checkpoint.order.length; i++) {
+            checkpoint.order[i] = initialPositions[checkpoint.order[i]];
+        }
+
+        try {
+            checkpoint.randomState = TrainingCheckpoint.serialise(rand);
+            ByteArrayOutputStream ruleState = new ByteArrayOutputStream();
+            updateRule.writeState(new DataOutputStream(ruleState));
+            checkpoint.updateRuleState = ruleState.toByteArray();
+            ByteArrayOutputStream samplerState = new ByteArrayOutputStream();
+            if (sampledNetworkError != null)
+                sampledNetworkError.writeState(new DataOutputStream(samplerState));
+            checkpoint.samplerState = samplerState.toByteArray();
+        }
+        catch (IOException e) {
+            //in-memory streams do not fail
+            throw new IllegalStateException(e);
+        }
+        return checkpoint;
+    }
+
+    private Future<?> writeCheckpoint(ExecutorService checkpointWriter, final TrainingCheckpoint checkpoint) {
+        return checkpointWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint.write(checkpointFile);
+                }
+                catch (IOException e) {
+                    Logger.getLogger(BackPropagation.class.getName())
+                            .log(Level.WARNING, "Cannot write checkpoint " + checkpointFile, e);
+                }
+            }
+        });
+    }
+
+    private static void awaitCheckpoint(Future<?> write) {
+        try {
+            write.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            Logger.getLogger(BackPropagation.class.getName())
+                    .log(Level.WARNING, "Checkpoint writer failed.", e.getCause());
+        }
+    }
+
+    /**
+     * Maps the storage index of every pattern of the training set to its
+     * position before training, so that checkpoints can record the shuffled
+     * order, see {@link Dataset#getStorageOrder()}.
+     */
+    private static int[] positionsOf(Dataset trainingset) {
+        int[] order = trainingset.getStorageOrder();
+        int storageSize = 0;
+        for (int index : order) {
+            storageSize = Math.max(storageSize, index + 1);
+        }
+        int[] positions = new int[storageSize];
+        for (int i = 0; i < order.length; i++) {
+            positions[order[i]] = i;
+        }
+        return positions;
+    }
+
+    //reads the clock only if stats are kept, see setStats
+    private long startTiming() {
+        return stats != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start in the given phase.
+     *
+     * @return the time the next phase starts at
+     */
+    private long lap(TrainingStats.Phase phase, long start) {
+        if (stats == null)
+            return 0;
+        long now = System.nanoTime();
+        stats.record(phase, now - start);
+        return now;
+    }
+
+    private void logEpoch(int epoch, double epochTrainingError, ValidationHistory history, int sampleSize) {
+        Logger.getLogger(getClass().getName())
+                .log(Level.FINER, "Epoch {0}: E_t = {1}, E_v = {2}, E_v` = {3}, stdDev(E_v) = {4}, "
+                        + "validated on {5} pattern(s)",
+                        new Object[]{
+                            epoch,
+                            epochTrainingError,
+                            history.last,
+                            history.average,
+                            history.stdDeviation,
+                            sampleSize
+                        }
+                );
+    }
+
+    /**
+     * Trains a {@link FlatFFNeuralNet} on one epoch of patterns, bin by bin,
+     * splitting every bin over the accumulators.
+     *
+     * @return the summed training error of the epoch
+     */
+    private double trainEpoch(Iterator<Pattern> patterns, GradientAccumulator[] accumulators, ExecutorService workers)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        Pattern[] bin = new Pattern[BIN_SIZE];
+        double epochError = 0;
+
+        while (patterns.hasNext()) {
+            int binCount = 0;
+            while (binCount < BIN_SIZE && patterns.hasNext()) {
+                bin[binCount++] = patterns.next();
+            }
+
+            if (workers == null) {
+                accumulators[0].accumulate(bin, 0, binCount);
+            }
+            else {
+                accumulateInParallel(bin, binCount, accumulators, workers);
+                //reduce in a fixed order to keep training deterministic
+                long start = startTiming();
+                for (int i = 1; i < accumulators.length; i++) {
+                    accumulators[i].addTo(accumulators[0]);
+                }
+                lap(TrainingStats.Phase.UPDATE, start);
+            }
+
+            long start = startTiming();
+            epochError += accumulators[0].takeTrainingError();
+            accumulators[0].updateWeights();
+            lap(TrainingStats.Phase.UPDATE, start);
+        }
+
+        return epochError;
+    }
+
+    /**
+     * Lets accumulator i process the i-th contiguous part of the bin on a
+     * worker thread and waits for all of them.
+     */
+    private static void accumulateInParallel(final Pattern[] bin, int binCount,
+            GradientAccumulator[] accumulators, ExecutorService workers)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        List<Callable<Void>> tasks = new ArrayList<>(accumulators.length);
+        for (int i = 0; i < accumulators.length; i++) {
+            final GradientAccumulator accumulator = accumulators[i];
+            final int from = i * binCount / accumulators.length;
+            final int to = (i + 1) * binCount / accumulators.length;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    accumulator.accumulate(bin, from, to);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> result : workers.invokeAll(tasks)) {
+                result.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training was interrupted.", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof UnequalInputWeightException)
+                throw (UnequalInputWeightException) e.getCause();
+            if (e.getCause() instanceof UnequalArgsDimensionException)
+                throw (UnequalArgsDimensionException) e.getCause();
+            throw new IllegalStateException("Training failed on a worker thread.", e.getCause());
+        }
+    }
+
+    /**
+     * Accumulates the weight deltas of one pattern in a network of
+     * {@link Neuron} objects. Each layer's deltas are the outer product of its
+     * error signals and the outputs of the previous layer, and its error
+     * signals are propagated back as the transposed matrix-vector product with
+     * its weights. layerOutputs and errorSignals are preallocated per layer
+     * and reused for every pattern.
+     */
+    private void backPropogateError(Neuron[][] layers, double[] targets, double[] outputs,
+            double[][] layerOutputs, double[][] errorSignals) {
         //calculate error signals from output nodes
-        double[] errorSignals = new double[outputs.length];
+        int outputLayer = layers.length - 1;
+        IScalarActivation outputActivation = scalarActivationOf(layers[outputLayer][0].getActivationFunction());
         for (int i = 0; i < outputs.length; i++) {
-            errorSignals[i] = -(targets[i] - outputs[i]) * (1 - outputs[i]) * outputs[i];
+            errorSignals[outputLayer][i] = -(targets[i] - outputs[i]) * derivative(outputActivation, outputs[i]);
         }
 
-        int biasIndex;
-        double[] newErrorSignals;
-
         //iterate through layers, from last to second to update weights
         //input layer is excluded since identity function is assumed
-        for (int i = layers.length - 1; i >= 1; i--) {
-            //used to capture error signals for the next layer
-            newErrorSignals = new double[layers[i - 1].length];
+        for (int i = outputLayer; i >= 1; i--) {
+            double[] inputs = layerOutputs[i - 1];
+            for (int k = 0; k < inputs.length; k++) {
+                inputs[k] = layers[i - 1][k].getOutput();
+            }
+
+            //error signals are not needed for the input layer
+            double[] newErrorSignals = i > 1 ? errorSignals[i - 1] : null;
+            if (newErrorSignals != null)
+                Arrays.fill(newErrorSignals, 0);
 
             for (int j = 0; j < layers[i].length; j++) {
-                //adjust all weights excluding the bias
-                for (int k = 0; k < layers[i][j].getWeightCount() - 1; k++) {
-                    accumulateWeightDelta(layers, errorSignals, i, j, k, WeightType.NORMAL);
-                    updateErrorSignal(layers, newErrorSignals, errorSignals, i, j, k);
-                }
-                //now adjust the bias weight
-                biasIndex = layers[i][j].getWeightCount() - 1;
-                accumulateWeightDelta(layers, errorSignals, i, j, biasIndex, WeightType.BIAS);
+                layers[i][j].accumulateWeightDeltas(-LEARNING_RATE * errorSignals[i][j], inputs);
+                if (newErrorSignals != null)
+                    layers[i][j].propagateErrorSignal(errorSignals[i][j], newErrorSignals);
             }
 
-            //update error signals to be used for the next layer
-            errorSignals = newErrorSignals;
+            //scale the summed signals by the derivative of the previous layer
+            if (newErrorSignals != null) {
+                IScalarActivation activation = scalarActivationOf(layers[i - 1][0].getActivationFunction());
+                for (int k = 0; k < newErrorSignals.length; k++) {
+                    newErrorSignals[k] *= derivative(activation, inputs[k]);
+                }
+            }
         }
+    }
 
+    /**
+     * Collects live references to the weight deltas of every neuron and
+     * initialises the update rule for them.
+     */
+    private void initialiseUpdateRule(Neuron[][] layers) {
+        int neuronCount = 0;
+        for (int i = 1; i < layers.length; i++) {
+            neuronCount += layers[i].length;
+        }
+        neuronWeightDeltas = new double[neuronCount][];
+        int[] groupSizes = new int[neuronCount];
+        for (int i = 1, n = 0; i < layers.length; i++) {
+            for (int j = 0; j < layers[i].length; j++, n++) {
+                neuronWeightDeltas[n] = layers[i][j].getWeightDeltaVector();
+                groupSizes[n] = neuronWeightDeltas[n].length;
+            }
+        }
+        updateRule.initialise(groupSizes);
     }
 
-    private void triggerWeightUpdates(IFFNeuralNet network) {
-        //obtain neurons
-        Neuron[][] layers = network.getNetworkLayers();
+    private void triggerWeightUpdates(Neuron[][] layers) {
+        updateRule.computeUpdates(neuronWeightDeltas);
 
         //update each weight in the network with its corresponding delta
         //that was accumulated over BIN_SIZE times
         for (int i = 1; i < layers.length; i++) {
             for (int j = 0; j < layers[i].length; j++) {
-                for (int k = 0; k < layers[i][j].getWeightCount(); k++) {
-                    layers[i][j].setWeight(k,
-                            layers[i][j].getWeightAt(k)
-                            + layers[i][j].getWeightDeltaAt(k));
-                    //reset weight delta for future use
-                    layers[i][j].setWeightDelta(k, 0);
-                }
+                layers[i][j].applyWeightDeltas();
             }
         }
     }
 
-    private void accumulateWeightDelta(Neuron[][] layers, double[] errorSignals, int i, int j, int k, WeightType type) {
-        double oldWeightDelta;
-        double newWeightDelta;
-        oldWeightDelta = layers[i][j].getWeightDeltaAt(k);
-        newWeightDelta = -LEARNING_RATE * errorSignals[j];
-
-        if (type == WeightType.NORMAL) {
-            newWeightDelta *= layers[i - 1][k].getOutput();//input for weight_k
-        }
-        else if (type == WeightType.BIAS) {
-            newWeightDelta *= -1;//input = -1 for bias            
-        }
-
-        newWeightDelta += oldWeightDelta;
-
-        layers[i][j].setWeightDelta(k, newWeightDelta);
+    /**
+     * Computes the derivative of an activation function from its output, using
+     * the primitive contract when available. Functions that do not implement
+     * {@link IScalarActivation} (activation == null) are assumed to be Sigmoid.
+     */
+    static double derivative(IScalarActivation activation, double output) {
+        if (activation != null)
+            return activation.derivativeFromOutput(output);
+        return (1 - output) * output;
     }
 
-    private void updateErrorSignal(Neuron[][] layers, double[] newErrorSignals, double[] errorSignals, int i, int j, int k) {
-        newErrorSignals[k] += layers[i][j].getWeightAt(k)
-                * errorSignals[j]
-                * (1 - layers[i - 1][k].getOutput())
-                * layers[i - 1][k].getOutput();
+    private static IScalarActivation scalarActivationOf(IFunction function) {
+        return function instanceof IScalarActivation ? (IScalarActivation) function : null;
     }
 
     /**
@@ -230,7 +912,7 @@ public class BackPropagation implements IFFNeuralNetTrainer {
      *
      * @param network
      */
-    private void initialise(IFFNeuralNet network) {
+    private void initialise(INeuronFFNeuralNet network) {
         Neuron[][] layers = network.getNetworkLayers();
         for (int i = 0; i < layers.length; i++) {
             for (int j = 0; j < layers[i].length; j++) {
@@ -243,7 +925,32 @@ public class BackPropagation implements IFFNeuralNetTrainer {
         }
     }
 
-    private final Random rand = new Random(System.nanoTime());
+    /**
+     * Initialises the weights of a {@link FlatFFNeuralNet} exactly as
+     * {@link #initialise(INeuronFFNeuralNet)} would, drawing them in weight vector
+     * order.
+     *
+     * @param network
+     * @throws UnequalArgsDimensionException
+     */
+    private void initialise(FlatFFNeuralNet network) throws UnequalArgsDimensionException {
+        double[] weightVector = new double[network.getDimensionality()];
+        int weightVectorIndex = 0;
+
+        for (int i = 1; i < network.getLayerCount(); i++) {
+            int fanin = network.getNeuronCount(i - 1) + 1;
+            double range = 1.0 / Math.sqrt(fanin);
+            for (int j = 0; j < network.getNeuronCount(i); j++) {
+                for (int k = 0; k < fanin; k++) {
+                    weightVector[weightVectorIndex++] = rand.nextDouble() * 2 * range - range;
+                }
+            }
+        }
+
+        network.setWeightVector(weightVector);
+    }
+
+    private Random rand = new Random(System.nanoTime());
     private final INetworkError defaultNetworError;
     private final INetworkError classificationAccuracy;//todo: could decide to use this as stopping condition
     private final double ACCEPTABLE_TRAINING_ERROR;
@@ -252,9 +959,142 @@ public class BackPropagation implements IFFNeuralNetTrainer {
     private final int MAX_EPOCH;
     private double trainingError;
     private double validationError;
+    //see setSparseInputs
+    private boolean useSparseInputs;
+    private double inputBackground;
+    //see setThreads
+    private int threads = 1;
+    //see setPipelinedValidation
+    private boolean pipelinedValidation;
+    //see setSampledValidation, null to measure the whole validation set
+    private SampledNetworkError sampledNetworkError;
+    //see setUpdateRule, neuronWeightDeltas holds the deltas of Neuron networks
+    private IWeightUpdateRule updateRule = new GradientDescent();
+    //see setStats, null if no stats are kept
+    private TrainingStats stats;
+    private double[][] neuronWeightDeltas;
+    //see getTimeToTarget
+    private double timeToTarget = Double.NaN;
+    //see getEpoch
+    private int lastEpoch;
+    //see setCheckpoint, null if checkpoints are not written
+    private File checkpointFile;
+    private int checkpointInterval;
+    //see fingerprint, of the network being trained
+    private String checkpointFingerprint;
+    //see setSeed, null if not seeded
+    private Long seed;
+
+    /**
+     * Running average and standard deviation of the validation error over
+     * the epochs, used to stop training once the network starts to overfit.
+     */
+    private static class ValidationHistory {
+
+        void add(double validationError) {
+            ++count;
+            double prevAvg = average;
+            average += (validationError - average) / count;
+            deviation += (validationError - average) * (validationError - prevAvg);
+            stdDeviation = Math.sqrt(deviation / count);
+            last = validationError;
+        }
+
+        boolean isOverfitting() {
+            return last > average + stdDeviation;
+        }
+
+        /**
+         * Solves the stopping rule for the next validation error x: after
+         * adding x, x > average + stdDeviation holds exactly if
+         * <pre>
+         *  x > average + sqrt(deviation * (count + 1) / (count * (count - 1)))
+         * </pre> with the values before adding x. The rule cannot fire
+         * before two errors have been added.
+         *
+         * @return the validation error above which the next epoch overfits
+         */
+        double getOverfittingThreshold() {
+            if (count < 2)
+                return Double.POSITIVE_INFINITY;
+            return average + Math.sqrt(deviation * (count + 1) / ((double) count * (count - 1)));
+        }
+
+        private int count;
+        private double last;
+        private double average;
+        private double deviation;
+        private double stdDeviation;
+    }
+
+    /**
+     * Validation error of a weight snapshot, measured on a background thread.
+     */
+    private static class PendingValidation {
+
+        PendingValidation(final FrozenFFNeuralNet _snapshot, final Dataset validationset,
+                double _trainingError, ExecutorService validator, final TrainingStats stats) {
+            snapshot = _snapshot;
+            trainingError = _trainingError;
+            //the training thread keeps its own metric instance
+            result = validator.submit(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    long start = stats != null ? System.nanoTime() : 0;
+                    double error = new DefaultNetworkError().measure(_snapshot, validationset);
+                    if (stats != null)
+                        stats.record(TrainingStats.Phase.VALIDATION, System.nanoTime() - start);
+                    return error;
+                }
+            });
+        }
+
+        double await() throws UnequalInputWeightException, UnequalArgsDimensionException {
+            try {
+                return result.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Training was interrupted.", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof UnequalInputWeightException)
+                    throw (UnequalInputWeightException) e.getCause();
+                if (e.getCause() instanceof UnequalArgsDimensionException)
+                    throw (UnequalArgsDimensionException) e.getCause();
+                throw new IllegalStateException("Validation failed on a worker thread.", e.getCause());
+            }
+        }
+
+        void cancel() {
+            result.cancel(true);
+        }
+
+        private final FrozenFFNeuralNet snapshot;
+        //training error of the epoch the snapshot was taken after
+        private final double trainingError;
+        private final Future<Double> result;
+    }
     
-    private enum WeightType {
-        BIAS, NORMAL
-    };
+    //daemon threads, so that a failed simulation cannot keep the JVM alive
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        //the stats to track the allocations of the threads in, or null
+        WorkerThreadFactory(TrainingStats _stats) {
+            stats = _stats;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "BackPropagation-worker-" + COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            if (stats != null)
+                stats.track(thread);
+            return thread;
+        }
+
+        private final TrainingStats stats;
+        private static final AtomicInteger COUNT = new AtomicInteger();
+    }
 
 }
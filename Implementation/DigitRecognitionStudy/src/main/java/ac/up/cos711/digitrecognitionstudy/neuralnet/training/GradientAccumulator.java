@@ -0,0 +1,401 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
+
+import ac.up.cos711.digitrecognitionstudy.data.Pattern;
+import ac.up.cos711.digitrecognitionstudy.data.SparseInputs;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.FlatFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.Workspace;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.IVectorKernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.Kernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.DefaultNetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.training.update.IWeightUpdateRule;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.util.Arrays;
+
+/**
+ * Accumulates the BackPropagation weight deltas of a {@link FlatFFNeuralNet}
+ * over the patterns of a bin, together with their training error. All buffers
+ * are owned by the accumulator, so that several accumulators can process
+ * disjoint patterns of a bin on different threads while the weights stay
+ * unchanged; their deltas are then summed into one of them with
+ * {@link #addTo(GradientAccumulator)} before the weights are updated.
+ *
+ * Patterns fed as dense inputs are processed a whole bin at a time: the bin is
+ * classified as one batch, and the backward pass works on row-major matrices
+ * of error signals with one row per pattern, so that every weight and delta
+ * row is loaded once per bin rather than once per pattern.
+ *
+ * @author Abrie van Aardt
+ */
+class GradientAccumulator {
+
+    /**
+     * @param _network
+     * @param _learningRate
+     * @param _sparseInputs whether patterns are fed as sparse encodings
+     * relative to _inputBackground
+     * @param _inputBackground
+     */
+    GradientAccumulator(FlatFFNeuralNet _network, double _learningRate, boolean _sparseInputs, double _inputBackground) {
+        network = _network;
+        learningRate = _learningRate;
+        sparseInputs = _sparseInputs;
+        inputBackground = _inputBackground;
+        workspace = network.createWorkspace();
+
+        int layerCount = network.getLayerCount();
+        outputs = new double[network.getNeuronCount(layerCount - 1)];
+        patternInputs = new double[network.getNeuronCount(0)];
+        patternTargets = new double[outputs.length];
+        errorSignals = new double[layerCount][];
+        weightDeltas = new double[layerCount][];
+        biasDeltas = new double[layerCount][];
+        weightDeltas[0] = new double[0];
+        biasDeltas[0] = new double[0];
+        errorSignals[0] = new double[0];
+        for (int i = 1; i < layerCount; i++) {
+            errorSignals[i] = new double[network.getNeuronCount(i)];
+            weightDeltas[i] = new double[network.getNeuronCount(i) * network.getNeuronCount(i - 1)];
+            biasDeltas[i] = new double[network.getNeuronCount(i)];
+        }
+        backgroundWeightDeltas = sparseInputs ? new double[network.getNeuronCount(1)] : null;
+        batchErrorSignals = new double[layerCount][];
+        batchErrorSignals[0] = new double[0];
+    }
+
+    /**
+     * Accumulates the weight deltas and training error of patterns[from] to
+     * patterns[to - 1]. Dense inputs are fed forward and back as a batch; the
+     * deltas equal those of accumulating the patterns one by one, up to the
+     * rounding of the batched forward pass.
+     *
+     * @param patterns
+     * @param from
+     * @param to
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    void accumulate(Pattern[] patterns, int from, int to)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (sparseInputs) {
+            for (int p = from; p < to; p++) {
+                accumulate(patterns[p]);
+            }
+            return;
+        }
+
+        int patternCount = to - from;
+        ensureBatchCapacity(patternCount);
+        int inputCount = network.getNeuronCount(0);
+        int outputCount = outputs.length;
+        for (int p = 0; p < patternCount; p++) {
+            if (patterns[from + p].getInputCount() != inputCount)
+                throw new UnequalArgsDimensionException();
+            patterns[from + p].copyInputsInto(batchInputs, p * inputCount);
+        }
+        long start = stats != null ? System.nanoTime() : 0;
+        network.classifyBatch(batchInputs, patternCount, batchOutputs, workspace);
+        if (stats != null) {
+            long now = System.nanoTime();
+            stats.record(TrainingStats.Phase.FORWARD, now - start);
+            start = now;
+        }
+
+        //calculate error signals from output nodes
+        int outputLayer = network.getLayerCount() - 1;
+        IScalarActivation outputActivation = network.getScalarActivation(outputLayer);
+        double[] layerErrorSignals = batchErrorSignals[outputLayer];
+        for (int p = 0; p < patternCount; p++) {
+            Pattern pattern = patterns[from + p];
+            if (pattern.getTargetCount() != outputCount)
+                throw new UnequalArgsDimensionException();
+            for (int i = 0, o = p * outputCount; i < outputCount; i++, o++) {
+                double difference = pattern.targetAt(i) - batchOutputs[o];
+                trainingError += difference * difference;
+                layerErrorSignals[o] = -difference * BackPropagation.derivative(outputActivation, batchOutputs[o]);
+            }
+        }
+
+        for (int i = outputLayer; i >= 1; i--) {
+            layerErrorSignals = batchErrorSignals[i];
+            double[] inputs = workspace.getBatchActivations(i - 1);
+            int fanin = network.getNeuronCount(i - 1);
+            int fanout = network.getNeuronCount(i);
+
+            //accumulate the product of the transposed signal matrix and the
+            //input matrix, one row of deltas at a time
+            for (int j = 0; j < fanout; j++) {
+                for (int p = 0; p < patternCount; p++) {
+                    double scaledErrorSignal = -learningRate * layerErrorSignals[p * fanout + j];
+                    KERNELS.axpy(scaledErrorSignal, inputs, p * fanin, weightDeltas[i], j * fanin, fanin);
+                    //input = -1 for bias
+                    biasDeltas[i][j] -= scaledErrorSignal;
+                }
+            }
+
+            //error signals are not needed for the input layer
+            if (i > 1) {
+                double[] newErrorSignals = batchErrorSignals[i - 1];
+                network.propagateErrorSignals(i, layerErrorSignals, newErrorSignals, patternCount);
+                scaleByDerivative(i - 1, inputs, newErrorSignals, patternCount * fanin);
+            }
+        }
+        if (stats != null)
+            stats.record(TrainingStats.Phase.BACKWARD, System.nanoTime() - start);
+    }
+
+    /**
+     * Feeds the pattern forward and accumulates its weight deltas and
+     * training error.
+     *
+     * @param p
+     * @throws UnequalInputWeightException
+     * @throws UnequalArgsDimensionException
+     */
+    void accumulate(Pattern p) throws UnequalInputWeightException, UnequalArgsDimensionException {
+        if (p.getTargetCount() != patternTargets.length)
+            throw new UnequalArgsDimensionException();
+        p.copyTargetsInto(patternTargets, 0);
+        long start = stats != null ? System.nanoTime() : 0;
+        SparseInputs encodedInputs = null;
+        if (sparseInputs) {
+            encodedInputs = p.getSparseInputs(inputBackground);
+            network.classifySparseInto(encodedInputs, outputs, workspace);
+        }
+        else {
+            if (p.getInputCount() != patternInputs.length)
+                throw new UnequalArgsDimensionException();
+            p.copyInputsInto(patternInputs, 0);
+            network.classifyInto(patternInputs, outputs, workspace);
+        }
+        if (stats != null) {
+            long now = System.nanoTime();
+            stats.record(TrainingStats.Phase.FORWARD, now - start);
+            start = now;
+        }
+
+        trainingError += DefaultNetworkError.errorForPattern(patternTargets, outputs);
+        backPropogateError(encodedInputs, patternTargets);
+        if (stats != null)
+            stats.record(TrainingStats.Phase.BACKWARD, System.nanoTime() - start);
+    }
+
+    /**
+     * Adds the deltas and training error accumulated here to those of target
+     * and resets this accumulator.
+     *
+     * @param target
+     */
+    void addTo(GradientAccumulator target) {
+        for (int i = 1; i < weightDeltas.length; i++) {
+            KERNELS.axpy(1, weightDeltas[i], 0, target.weightDeltas[i], 0, weightDeltas[i].length);
+            KERNELS.axpy(1, biasDeltas[i], 0, target.biasDeltas[i], 0, biasDeltas[i].length);
+            Arrays.fill(weightDeltas[i], 0);
+            Arrays.fill(biasDeltas[i], 0);
+        }
+        if (backgroundWeightDeltas != null) {
+            KERNELS.axpy(1, backgroundWeightDeltas, 0, target.backgroundWeightDeltas, 0, backgroundWeightDeltas.length);
+            Arrays.fill(backgroundWeightDeltas, 0);
+        }
+        target.trainingError += trainingError;
+        trainingError = 0;
+    }
+
+    /**
+     * @param _stats the stats to record the time of the forward and backward
+     * passes in, or null
+     */
+    void setStats(TrainingStats _stats) {
+        stats = _stats;
+    }
+
+    /**
+     * Sets the rule applied to the deltas by {@link #updateWeights()} and
+     * initialises its state for the network.
+     *
+     * @param rule
+     */
+    void setUpdateRule(IWeightUpdateRule rule) {
+        int layerCount = network.getLayerCount();
+        deltaGroups = new double[2 * (layerCount - 1)][];
+        int[] groupSizes = new int[deltaGroups.length];
+        for (int i = 1; i < layerCount; i++) {
+            deltaGroups[2 * i - 2] = weightDeltas[i];
+            deltaGroups[2 * i - 1] = biasDeltas[i];
+        }
+        for (int i = 0; i < deltaGroups.length; i++) {
+            groupSizes[i] = deltaGroups[i].length;
+        }
+        rule.initialise(groupSizes);
+        updateRule = rule;
+    }
+
+    /**
+     * Adds the accumulated deltas, transformed by the update rule if one is
+     * set, to the weights of the network and resets them for the next bin.
+     */
+    void updateWeights() {
+        //spread the background's share of the deltas over the first layer
+        if (backgroundWeightDeltas != null) {
+            int fanin = network.getNeuronCount(0);
+            for (int j = 0; j < backgroundWeightDeltas.length; j++) {
+                for (int k = j * fanin; k < (j + 1) * fanin; k++) {
+                    weightDeltas[1][k] += backgroundWeightDeltas[j];
+                }
+            }
+            Arrays.fill(backgroundWeightDeltas, 0);
+        }
+
+        if (updateRule != null)
+            updateRule.computeUpdates(deltaGroups);
+
+        for (int i = 1; i < network.getLayerCount(); i++) {
+            network.updateWeights(i, weightDeltas[i], biasDeltas[i]);
+            //reset weight deltas for future use
+            Arrays.fill(weightDeltas[i], 0);
+            Arrays.fill(biasDeltas[i], 0);
+        }
+    }
+
+    /**
+     * @return the training error accumulated since the last call
+     */
+    double takeTrainingError() {
+        double error = trainingError;
+        trainingError = 0;
+        return error;
+    }
+
+    /**
+     * @param encodedInputs sparse encoding of the pattern's inputs, or null
+     * to accumulate the deltas of the first hidden layer densely
+     */
+    private void backPropogateError(SparseInputs encodedInputs, double[] targets) {
+        //calculate error signals from output nodes
+        int outputLayer = network.getLayerCount() - 1;
+        IScalarActivation outputActivation = network.getScalarActivation(outputLayer);
+        double[] layerErrorSignals = errorSignals[outputLayer];
+        for (int i = 0; i < outputs.length; i++) {
+            layerErrorSignals[i] = -(targets[i] - outputs[i]) * BackPropagation.derivative(outputActivation, outputs[i]);
+        }
+
+        //iterate through layers, from last to second to update weights
+        //input layer is excluded since identity function is assumed
+        for (int i = outputLayer; i >= 1; i--) {
+            layerErrorSignals = errorSignals[i];
+            double[] inputs = workspace.getActivations(i - 1);
+            double[] layerWeightDeltas = weightDeltas[i];
+            double[] layerBiasDeltas = biasDeltas[i];
+
+            if (i == 1 && encodedInputs != null) {
+                accumulateSparseWeightDeltas(layerErrorSignals, encodedInputs);
+                continue;
+            }
+
+            //accumulate the outer product of error signals and inputs
+            for (int j = 0; j < layerErrorSignals.length; j++) {
+                double scaledErrorSignal = -learningRate * layerErrorSignals[j];
+                KERNELS.axpy(scaledErrorSignal, inputs, 0, layerWeightDeltas, j * inputs.length, inputs.length);
+                //input = -1 for bias
+                layerBiasDeltas[j] -= scaledErrorSignal;
+            }
+
+            //error signals are not needed for the input layer
+            if (i > 1) {
+                double[] newErrorSignals = errorSignals[i - 1];
+                network.propagateErrorSignals(i, layerErrorSignals, newErrorSignals);
+                scaleByDerivative(i - 1, inputs, newErrorSignals, inputs.length);
+            }
+        }
+    }
+
+    /**
+     * Scales the first length error signals by the derivative of the
+     * activation function of layer at the corresponding outputs.
+     */
+    private void scaleByDerivative(int layer, double[] layerOutputs, double[] signals, int length) {
+        IScalarActivation activation = network.getScalarActivation(layer);
+        if (activation instanceof Sigmoid) {
+            double lambda = ((Sigmoid) activation).getLambda();
+            KERNELS.scaleBySigmoidDerivative(lambda, layerOutputs, signals, length);
+        }
+        else {
+            for (int k = 0; k < length; k++) {
+                signals[k] *= BackPropagation.derivative(activation, layerOutputs[k]);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the batch buffers can hold patternCount patterns. The buffers
+     * only grow, so bins of the same size allocate once.
+     */
+    private void ensureBatchCapacity(int patternCount) {
+        if (patternCount <= batchCapacity)
+            return;
+        batchInputs = new double[patternCount * network.getNeuronCount(0)];
+        batchOutputs = new double[patternCount * outputs.length];
+        for (int i = 1; i < batchErrorSignals.length; i++) {
+            batchErrorSignals[i] = new double[patternCount * network.getNeuronCount(i)];
+        }
+        batchCapacity = patternCount;
+    }
+
+    /**
+     * Accumulates the weight deltas of the first hidden layer for an input
+     * pattern in sparse encoding. Every input is background + offset, so the
+     * delta -η * δ_j * input_k splits into -η * δ_j * background, shared by
+     * all weights of neuron j, and -η * δ_j * offset_k for the few inputs with
+     * a non-zero offset.
+     */
+    private void accumulateSparseWeightDeltas(double[] layerErrorSignals, SparseInputs encodedInputs) {
+        double[] layerWeightDeltas = weightDeltas[1];
+        double[] layerBiasDeltas = biasDeltas[1];
+        int[] indices = encodedInputs.getIndices();
+        double[] offsets = encodedInputs.getOffsets();
+        int fanin = encodedInputs.getDimension();
+
+        for (int j = 0; j < layerErrorSignals.length; j++) {
+            double scaledErrorSignal = -learningRate * layerErrorSignals[j];
+            int row = j * fanin;
+            for (int k = 0; k < indices.length; k++) {
+                layerWeightDeltas[row + indices[k]] += scaledErrorSignal * offsets[k];
+            }
+            backgroundWeightDeltas[j] += scaledErrorSignal * inputBackground;
+            //input = -1 for bias
+            layerBiasDeltas[j] -= scaledErrorSignal;
+        }
+    }
+
+    private final FlatFFNeuralNet network;
+    private final double learningRate;
+    private final boolean sparseInputs;
+    private final double inputBackground;
+    private final Workspace workspace;
+    private final double[] outputs;
+    //the dense inputs and the targets of the pattern being accumulated
+    private final double[] patternInputs;
+    private final double[] patternTargets;
+    //error signals per layer, reused for every pattern
+    private final double[][] errorSignals;
+    //weight deltas laid out like the weight matrices of the network
+    private final double[][] weightDeltas;
+    private final double[][] biasDeltas;
+    //share of the background in the weight deltas of the first hidden layer,
+    //one per neuron, null unless training on sparse inputs
+    private final double[] backgroundWeightDeltas;
+    //row-major buffers of a batch, one row per pattern, see ensureBatchCapacity
+    private double[] batchInputs;
+    private double[] batchOutputs;
+    private final double[][] batchErrorSignals;
+    private int batchCapacity;
+    //see setUpdateRule, deltaGroups holds the weight and bias deltas per layer
+    private IWeightUpdateRule updateRule;
+    private double[][] deltaGroups;
+    private double trainingError;
+    //see setStats
+    private TrainingStats stats;
+    private static final IVectorKernels KERNELS = Kernels.get();
+}
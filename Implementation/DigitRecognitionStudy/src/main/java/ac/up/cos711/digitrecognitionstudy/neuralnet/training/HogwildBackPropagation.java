@@ -0,0 +1,553 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Pattern;
+import ac.up.cos711.digitrecognitionstudy.data.SparseInputs;
+import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.IScalarActivation;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.util.UnequalArgsDimensionException;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.FrozenFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.IVectorKernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.kernel.Kernels;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.DefaultNetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.INetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.UnequalInputWeightException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous, lock-free variant of {@link BackPropagation} in the style of
+ * Hogwild!. Every epoch the shuffled training set is divided into one shard
+ * per thread, and each thread performs stochastic gradient descent on its
+ * shard, applying the update of every pattern directly to weight storage
+ * shared by all threads, without any synchronisation. Updates may therefore
+ * read partially updated weights or occasionally overwrite each other, which
+ * SGD tolerates when updates are small and rarely collide.
+ *
+ * The shared weights are row-major matrices per layer owned by the trainer.
+ * They are copied into the network at the end of every epoch, which is the
+ * only point where the threads meet, to measure the validation error.
+ *
+ * With {@link #setSparseInputs(double)}, the weights of the first hidden
+ * layer are kept as w_jk = v_jk + u_j, so that a pattern only updates v for
+ * the inputs that differ from the background, plus the single shift u_j of
+ * every neuron, instead of every weight of the layer:
+ * <pre>
+ *  net_j = background * sum_k(v_jk) + sum_ink(v_jk * offset_k)
+ *          + u_j * sum_k(input_k) - bias_j
+ * </pre> where sum_k(v_jk) is maintained along with the updates and
+ * recomputed at the start of every epoch.
+ *
+ * Terms that every pattern changes for every neuron, the biases and, with
+ * sparse inputs, the shifts and weight sums, would make all threads write the
+ * same few cache lines for every pattern. Each thread therefore accumulates
+ * its changes to them privately, using them in its own forward passes, and
+ * adds them to the shared terms every few dozen patterns and at the end of
+ * its shard.
+ *
+ * @author Abrie van Aardt
+ */
+public class HogwildBackPropagation implements IFFNeuralNetTrainer {
+
+    /**
+     * @param _acceptableTError
+     * @param _learningRate
+     * @param _maxEpoch
+     * @param _threads number of threads updating the weights concurrently
+     */
+    public HogwildBackPropagation(double _acceptableTError, double _learningRate, int _maxEpoch, int _threads) {
+        if (_threads < 1)
+            throw new IllegalArgumentException("At least one thread is required.");
+        ACCEPTABLE_TRAINING_ERROR = _acceptableTError;
+        LEARNING_RATE = _learningRate;
+        MAX_EPOCH = _maxEpoch;
+        THREADS = _threads;
+        defaultNetworError = new DefaultNetworkError();
+    }
+
+    /**
+     * Trains on sparse encodings of the input patterns relative to background,
+     * see {@link SparseInputs}. Only used if the input layer of the network
+     * uses {@link Identity}.
+     *
+     * @param background
+     */
+    public void setSparseInputs(double background) {
+        useSparseInputs = true;
+        inputBackground = background;
+    }
+
+    /**
+     * Seeds the random number generator used to initialise the weights and to
+     * shuffle the training set. Since the threads interleave freely, this does
+     * not make training with more than one thread reproducible.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        rand = new Random(seed);
+    }
+
+    @Override
+    public void train(IFFNeuralNet network, Dataset trainingset, Dataset validationset)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+
+        Logger.getLogger(getClass().getName())
+                .log(Level.INFO, "Started asynchronous neural network training on {0} thread(s)...", THREADS);
+
+        initialise(network);
+
+        double prevAvg;
+        double avgValidationError = 0;
+        double devValidationError = 0;
+        double stdDevValidationError = 0;
+        validationError = 0;
+        int outputCount = layerSizes[layerSizes.length - 1];
+        Pattern[] patterns = new Pattern[trainingset.size()];
+        Worker[] workers = new Worker[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new Worker();
+        }
+
+        int epoch = 0;
+        long trainingTime = 0;
+        long duration = System.nanoTime();
+
+        do {
+            ++epoch;
+
+            //prevent memorisation of pattern order
+            trainingset.shuffle(rand);
+            Iterator<Pattern> iterator = trainingset.iterator();
+            for (int i = 0; i < patterns.length; i++) {
+                patterns[i] = iterator.next();
+            }
+            if (sparse)
+                updateWeightSums();
+
+            long epochStart = System.nanoTime();
+            runShards(workers, patterns);
+            trainingTime += System.nanoTime() - epochStart;
+
+            trainingError = 0;
+            for (Worker worker : workers) {
+                trainingError += worker.trainingError;
+            }
+            trainingError /= (patterns.length * outputCount);
+
+            //calculate running average of validation and standard deviation
+            network.setWeightVector(getWeightVector());
+            prevAvg = avgValidationError;
+            validationError = defaultNetworError.measure(network, validationset);
+            avgValidationError += (validationError - avgValidationError) / epoch;
+            devValidationError += (validationError - avgValidationError) * (validationError - prevAvg);
+            stdDevValidationError = Math.sqrt(devValidationError / epoch);
+
+            Logger.getLogger(getClass().getName())
+                    .log(Level.FINER, "Epoch {0}: E_t = {1}, E_v = {2}, E_v` = {3}, stdDev(E_v) = {4}",
+                            new Object[]{
+                                epoch,
+                                trainingError,
+                                validationError,
+                                avgValidationError,
+                                stdDevValidationError
+                            }
+                    );
+        }
+        while (trainingError > ACCEPTABLE_TRAINING_ERROR
+                && (validationError <= (avgValidationError + stdDevValidationError))
+                && epoch < MAX_EPOCH);
+
+        duration = System.nanoTime() - duration;
+        throughput = epoch * (double) patterns.length / (trainingTime / 1e9);
+
+        Logger.getLogger(getClass().getName())
+                .log(Level.INFO, "Training completed in {0} epoch(s) ({1}s) with "
+                        + "E_t = {2}, E_v = {3}, at {4} patterns/s.",
+                        new Object[]{
+                            epoch,
+                            duration / 1000000000,
+                            trainingError,
+                            validationError,
+                            String.format("%.0f", throughput)
+                        }
+                );
+    }
+
+    @Override
+    public double getValidationError() {
+        return validationError;
+    }
+
+    @Override
+    public double getTrainingError() {
+        return trainingError;
+    }
+
+    /**
+     * @return number of training patterns processed per second, excluding
+     * the time spent measuring the validation error
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Runs every worker on its shard of the patterns, the last one on the
+     * calling thread, and waits for all of them.
+     */
+    private void runShards(Worker[] workers, Pattern[] patterns)
+            throws UnequalInputWeightException, UnequalArgsDimensionException {
+        Thread[] threads = new Thread[workers.length - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].from = i * patterns.length / workers.length;
+            workers[i].to = (i + 1) * patterns.length / workers.length;
+            workers[i].patterns = patterns;
+            workers[i].failure = null;
+            if (i < threads.length) {
+                threads[i] = new Thread(workers[i], "Hogwild-worker-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+        workers[workers.length - 1].run();
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Training was interrupted.", e);
+        }
+
+        for (Worker worker : workers) {
+            if (worker.failure instanceof UnequalInputWeightException)
+                throw (UnequalInputWeightException) worker.failure;
+            if (worker.failure instanceof UnequalArgsDimensionException)
+                throw (UnequalArgsDimensionException) worker.failure;
+            if (worker.failure != null)
+                throw new IllegalStateException("Training failed on a worker thread.", worker.failure);
+        }
+    }
+
+    /**
+     * Reads the topology of the network and initialises the shared weights
+     * as {@link BackPropagation} does, drawing them in weight vector order.
+     */
+    private void initialise(IFFNeuralNet network) throws UnequalArgsDimensionException {
+        FrozenFFNeuralNet topology = network.freeze();
+        int layerCount = topology.getLayerCount();
+        layerSizes = new int[layerCount];
+        scalarActivations = new IScalarActivation[layerCount];
+        weights = new double[layerCount][];
+        biases = new double[layerCount][];
+
+        for (int i = 0; i < layerCount; i++) {
+            layerSizes[i] = topology.getNeuronCount(i);
+            IFunction function = topology.getActivationFunction(i);
+            if (i > 0 && !(function instanceof IScalarActivation))
+                throw new IllegalArgumentException("Activation functions must implement IScalarActivation.");
+            scalarActivations[i] = function instanceof IScalarActivation ? (IScalarActivation) function : null;
+        }
+        inputIdentity = topology.getActivationFunction(0) instanceof Identity;
+        sparse = useSparseInputs && inputIdentity;
+
+        weights[0] = new double[0];
+        biases[0] = new double[0];
+        for (int i = 1; i < layerCount; i++) {
+            int fanin = layerSizes[i - 1];
+            double range = 1.0 / Math.sqrt(fanin + 1);
+            weights[i] = new double[layerSizes[i] * fanin];
+            biases[i] = new double[layerSizes[i]];
+            for (int j = 0; j < layerSizes[i]; j++) {
+                for (int k = 0; k < fanin; k++) {
+                    weights[i][j * fanin + k] = rand.nextDouble() * 2 * range - range;
+                }
+                biases[i][j] = rand.nextDouble() * 2 * range - range;
+            }
+        }
+
+        shifts = new double[layerSizes[1]];
+        weightSums = new double[layerSizes[1]];
+        network.setWeightVector(getWeightVector());
+    }
+
+    //recomputes sum_k(v_jk) of the first hidden layer, see the class comment
+    private void updateWeightSums() {
+        int fanin = layerSizes[0];
+        for (int j = 0; j < layerSizes[1]; j++) {
+            double sum = 0;
+            for (int k = 0; k < fanin; k++) {
+                sum += weights[1][j * fanin + k];
+            }
+            weightSums[j] = sum;
+        }
+    }
+
+    /**
+     * @return the shared weights in weight vector order, with the shifts of
+     * the first hidden layer folded in
+     */
+    private double[] getWeightVector() {
+        int dimensionality = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            dimensionality += layerSizes[i] * (layerSizes[i - 1] + 1);
+        }
+
+        double[] weightVector = new double[dimensionality];
+        int weightVectorIndex = 0;
+        for (int i = 1; i < layerSizes.length; i++) {
+            int fanin = layerSizes[i - 1];
+            for (int j = 0; j < layerSizes[i]; j++) {
+                for (int k = 0; k < fanin; k++) {
+                    weightVector[weightVectorIndex++] = weights[i][j * fanin + k] + (i == 1 ? shifts[j] : 0);
+                }
+                weightVector[weightVectorIndex++] = biases[i][j];
+            }
+        }
+        return weightVector;
+    }
+
+    /**
+     * Trains on a shard of the patterns with buffers of its own, reading and
+     * writing the shared weights without synchronisation.
+     */
+    private class Worker implements Runnable {
+
+        Worker() {
+            activations = new double[layerSizes.length][];
+            errorSignals = new double[layerSizes.length][];
+            for (int i = 0; i < layerSizes.length; i++) {
+                activations[i] = new double[layerSizes[i]];
+                errorSignals[i] = new double[layerSizes[i]];
+            }
+            targets = new double[layerSizes[layerSizes.length - 1]];
+            biasDeltas = new double[layerSizes.length][];
+            for (int i = 0; i < layerSizes.length; i++) {
+                biasDeltas[i] = new double[layerSizes[i]];
+            }
+            shiftDeltas = new double[layerSizes[1]];
+            weightSumDeltas = new double[layerSizes[1]];
+        }
+
+        @Override
+        public void run() {
+            trainingError = 0;
+            try {
+                for (int p = from; p < to; p++) {
+                    train(patterns[p]);
+                    if ((p - from + 1) % FLUSH_INTERVAL == 0)
+                        flush();
+                }
+            }
+            catch (UnequalInputWeightException | UnequalArgsDimensionException | RuntimeException e) {
+                failure = e;
+            }
+            finally {
+                flush();
+            }
+        }
+
+        //adds the changes accumulated by this thread to the shared terms
+        private void flush() {
+            for (int i = 1; i < layerSizes.length; i++) {
+                for (int j = 0; j < layerSizes[i]; j++) {
+                    biases[i][j] += biasDeltas[i][j];
+                }
+                Arrays.fill(biasDeltas[i], 0);
+            }
+            if (sparse) {
+                for (int j = 0; j < layerSizes[1]; j++) {
+                    shifts[j] += shiftDeltas[j];
+                    weightSums[j] += weightSumDeltas[j];
+                }
+                Arrays.fill(shiftDeltas, 0);
+                Arrays.fill(weightSumDeltas, 0);
+            }
+        }
+
+        private void train(Pattern p) throws UnequalInputWeightException, UnequalArgsDimensionException {
+            if (p.getTargetCount() != targets.length)
+                throw new UnequalArgsDimensionException();
+            p.copyTargetsInto(targets, 0);
+            SparseInputs encodedInputs = null;
+            if (sparse) {
+                encodedInputs = p.getSparseInputs(inputBackground);
+                feedSparseLayer(encodedInputs);
+            }
+            else {
+                if (p.getInputCount() != layerSizes[0])
+                    throw new UnequalArgsDimensionException();
+                //the inputs are read straight into the input layer
+                double[] inputs = activations[0];
+                p.copyInputsInto(inputs, 0);
+                if (!inputIdentity) {
+                    for (int k = 0; k < inputs.length; k++) {
+                        inputs[k] = scalarActivations[0].apply(inputs[k]);
+                    }
+                }
+                feedLayer(1);
+            }
+            for (int i = 2; i < layerSizes.length; i++) {
+                feedLayer(i);
+            }
+
+            //calculate error signals from output nodes
+            int outputLayer = layerSizes.length - 1;
+            double[] outputs = activations[outputLayer];
+            trainingError += DefaultNetworkError.errorForPattern(targets, outputs);
+            for (int j = 0; j < outputs.length; j++) {
+                errorSignals[outputLayer][j] = -(targets[j] - outputs[j])
+                        * BackPropagation.derivative(scalarActivations[outputLayer], outputs[j]);
+            }
+
+            //propagate each layer's signals before its weights change
+            for (int i = outputLayer; i >= 1; i--) {
+                if (i > 1)
+                    propagateErrorSignals(i);
+                if (i == 1 && encodedInputs != null)
+                    updateSparseLayer(encodedInputs);
+                else
+                    updateLayer(i);
+            }
+        }
+
+        private void feedLayer(int layer) {
+            int fanin = layerSizes[layer - 1];
+            double[] w = weights[layer];
+            for (int j = 0; j < layerSizes[layer]; j++) {
+                double net = KERNELS.dot(activations[layer - 1], 0, w, j * fanin, fanin) - bias(layer, j);
+                activations[layer][j] = scalarActivations[layer].apply(net);
+            }
+        }
+
+        private void feedSparseLayer(SparseInputs encodedInputs) {
+            int fanin = layerSizes[0];
+            int[] indices = encodedInputs.getIndices();
+            double[] offsets = encodedInputs.getOffsets();
+            double offsetSum = 0;
+            for (int k = 0; k < offsets.length; k++) {
+                offsetSum += offsets[k];
+            }
+            double inputSum = fanin * inputBackground + offsetSum;
+
+            double[] v = weights[1];
+            for (int j = 0; j < layerSizes[1]; j++) {
+                int row = j * fanin;
+                double net = inputBackground * (weightSums[j] + weightSumDeltas[j])
+                        + (shifts[j] + shiftDeltas[j]) * inputSum - bias(1, j);
+                for (int k = 0; k < indices.length; k++) {
+                    net += v[row + indices[k]] * offsets[k];
+                }
+                activations[1][j] = scalarActivations[1].apply(net);
+            }
+        }
+
+        private void propagateErrorSignals(int layer) {
+            int fanin = layerSizes[layer - 1];
+            double[] previous = errorSignals[layer - 1];
+            Arrays.fill(previous, 0);
+            for (int j = 0; j < layerSizes[layer]; j++) {
+                KERNELS.axpy(errorSignals[layer][j], weights[layer], j * fanin, previous, 0, fanin);
+            }
+            for (int k = 0; k < fanin; k++) {
+                previous[k] *= BackPropagation.derivative(scalarActivations[layer - 1], activations[layer - 1][k]);
+            }
+        }
+
+        private void updateLayer(int layer) {
+            int fanin = layerSizes[layer - 1];
+            for (int j = 0; j < layerSizes[layer]; j++) {
+                double scaledErrorSignal = -LEARNING_RATE * errorSignals[layer][j];
+                //leave the row of a neuron without error untouched
+                if (scaledErrorSignal == 0)
+                    continue;
+                KERNELS.axpy(scaledErrorSignal, activations[layer - 1], 0, weights[layer], j * fanin, fanin);
+                //input = -1 for bias
+                biasDeltas[layer][j] -= scaledErrorSignal;
+            }
+        }
+
+        private void updateSparseLayer(SparseInputs encodedInputs) {
+            int fanin = layerSizes[0];
+            int[] indices = encodedInputs.getIndices();
+            double[] offsets = encodedInputs.getOffsets();
+            double[] v = weights[1];
+            for (int j = 0; j < layerSizes[1]; j++) {
+                double scaledErrorSignal = -LEARNING_RATE * errorSignals[1][j];
+                if (scaledErrorSignal == 0)
+                    continue;
+                //only the weights of inputs that differ from the background
+                int row = j * fanin;
+                double weightSumDelta = 0;
+                for (int k = 0; k < indices.length; k++) {
+                    double delta = scaledErrorSignal * offsets[k];
+                    v[row + indices[k]] += delta;
+                    weightSumDelta += delta;
+                }
+                weightSumDeltas[j] += weightSumDelta;
+                shiftDeltas[j] += scaledErrorSignal * inputBackground;
+                //input = -1 for bias
+                biasDeltas[1][j] -= scaledErrorSignal;
+            }
+        }
+
+        //the shared bias with the changes of this thread that are not yet
+        //flushed
+        private double bias(int layer, int neuron) {
+            return biases[layer][neuron] + biasDeltas[layer][neuron];
+        }
+
+        //shard of the patterns for the current epoch
+        private Pattern[] patterns;
+        private int from;
+        private int to;
+        private double trainingError;
+        private Exception failure;
+        private final double[][] activations;
+        private final double[][] errorSignals;
+        private final double[] targets;
+        //changes to the shared biases, shifts and weight sums since the last
+        //flush, see the class comment
+        private final double[][] biasDeltas;
+        private final double[] shiftDeltas;
+        private final double[] weightSumDeltas;
+    }
+
+    private Random rand = new Random(System.nanoTime());
+    private final INetworkError defaultNetworError;
+    private final double ACCEPTABLE_TRAINING_ERROR;
+    private final double LEARNING_RATE;
+    private final int MAX_EPOCH;
+    private final int THREADS;
+    private double trainingError;
+    private double validationError;
+    private double throughput;
+    //see setSparseInputs
+    private boolean useSparseInputs;
+    private double inputBackground;
+    //topology of the network being trained
+    private int[] layerSizes;
+    private IScalarActivation[] scalarActivations;
+    private boolean inputIdentity;
+    private boolean sparse;
+    //shared row-major weight matrices and biases per layer, updated by all
+    //workers without synchronisation
+    private double[][] weights;
+    private double[][] biases;
+    //per-neuron shift u_j and sum_k(v_jk) of the first hidden layer, only
+    //used with sparse inputs
+    private double[] shifts;
+    private double[] weightSums;
+    private static final IVectorKernels KERNELS = Kernels.get();
+    //number of patterns after which a thread adds its changes to the terms
+    //shared by every pattern to the shared weights
+    private static final int FLUSH_INTERVAL = 32;
+}
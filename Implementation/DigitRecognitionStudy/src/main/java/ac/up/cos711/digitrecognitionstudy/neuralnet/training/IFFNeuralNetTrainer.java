@@ -29,4 +29,14 @@ public interface IFFNeuralNetTrainer{
      */
     public void train(IFFNeuralNet network, Dataset dataset, Dataset validationset)
             throws UnequalInputWeightException, UnequalArgsDimensionException;
+
+    /**
+     * @return the training error of the last epoch of the last call to train
+     */
+    public double getTrainingError();
+
+    /**
+     * @return the validation error of the last epoch of the last call to train
+     */
+    public double getValidationError();
 }
@@ -0,0 +1,235 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * State of {@link BackPropagation} at the end of an epoch, from which
+ * training can continue exactly as if it had not been interrupted. Pending
+ * weight deltas are always zero at the end of an epoch, so the state
+ * consists of the weights, the order of the training set, the random number
+ * generator, the state of the weight update rule, the state of the sampler
+ * of sampled validation and the epoch statistics.
+ *
+ * Every checkpoint carries a fingerprint of the network topology and training
+ * settings it was written for, so that it is not resumed by training that
+ * differs, and a flag that the caller sets once it has recorded the results
+ * of completed training, see {@link #markRecorded(File)}.
+ *
+ * Checkpoints are stored in a compact binary format. A checkpoint is first
+ * written to a temporary file in the same directory, which then replaces the
+ * checkpoint by an atomic rename, so that a crash during a write leaves the
+ * previous checkpoint intact.
+ *
+ * @author Abrie van Aardt
+ */
+public class TrainingCheckpoint {
+
+    /**
+     * Tells whether the checkpoint at file was written for training with the
+     * given fingerprint when it completed or reached the epoch limit, and its
+     * results have been recorded since, without reading the rest of it.
+     *
+     * @param file
+     * @param fingerprint the fingerprint of the training that would resume
+     * @param maxEpoch the epoch limit training would resume with
+     * @return true if file holds the recorded checkpoint of training that
+     * would not resume, false if it holds any other or does not exist
+     * @throws IOException if file exists but is not a checkpoint
+     */
+    static boolean isRecorded(File file, String fingerprint, int maxEpoch) throws IOException {
+        if (!file.exists())
+            return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            readHeader(in);
+            if (!in.readUTF().equals(fingerprint) || !in.readBoolean())
+                return false;
+            return in.readBoolean() || in.readInt() >= maxEpoch;
+        }
+    }
+
+    /**
+     * Marks the checkpoint at file as recorded, meaning that the results of
+     * the training it was written for are stored elsewhere, so that training
+     * which would only restore them can be skipped, see
+     * {@link BackPropagation#hasRecordedCheckpoint(IFFNeuralNet, Dataset)}.
+     *
+     * @param file
+     * @throws IOException if file cannot be read or is not a checkpoint
+     */
+    public static void markRecorded(File file) throws IOException {
+        TrainingCheckpoint checkpoint = read(file);
+        checkpoint.recorded = true;
+        checkpoint.write(file);
+    }
+
+    /**
+     * Writes the checkpoint to file, atomically replacing any previous one.
+     *
+     * @param file
+     * @throws IOException
+     */
+    void write(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs())
+            throw new IOException("Cannot create directory " + directory);
+        File temporary = new File(directory, file.getName() + ".tmp");
+
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(fingerprint);
+            out.writeBoolean(recorded);
+            out.writeBoolean(complete);
+            out.writeInt(epoch);
+            out.writeDouble(trainingError);
+            out.writeDouble(validationError);
+            out.writeDouble(timeToTarget);
+            out.writeLong(elapsedNanos);
+            out.writeInt(historyCount);
+            out.writeDouble(historyLast);
+            out.writeDouble(historyAverage);
+            out.writeDouble(historyDeviation);
+            out.writeDouble(historyStdDeviation);
+            writeBytes(out, randomState);
+            writeBytes(out, updateRuleState);
+            writeBytes(out, samplerState);
+            out.writeInt(weights.length);
+            for (double weight : weights) {
+                out.writeDouble(weight);
+            }
+            out.writeInt(order.length);
+            for (int index : order) {
+                out.writeInt(index);
+            }
+            out.flush();
+            //make sure the data is on disk before it replaces the checkpoint
+            stream.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param file
+     * @return the checkpoint stored in file
+     * @throws IOException if file cannot be read or is not a checkpoint
+     */
+    static TrainingCheckpoint read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            readHeader(in);
+            TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+            checkpoint.fingerprint = in.readUTF();
+            checkpoint.recorded = in.readBoolean();
+            checkpoint.complete = in.readBoolean();
+            checkpoint.epoch = in.readInt();
+            checkpoint.trainingError = in.readDouble();
+            checkpoint.validationError = in.readDouble();
+            checkpoint.timeToTarget = in.readDouble();
+            checkpoint.elapsedNanos = in.readLong();
+            checkpoint.historyCount = in.readInt();
+            checkpoint.historyLast = in.readDouble();
+            checkpoint.historyAverage = in.readDouble();
+            checkpoint.historyDeviation = in.readDouble();
+            checkpoint.historyStdDeviation = in.readDouble();
+            checkpoint.randomState = readBytes(in);
+            checkpoint.updateRuleState = readBytes(in);
+            checkpoint.samplerState = readBytes(in);
+            checkpoint.weights = new double[in.readInt()];
+            for (int i = 0; i < checkpoint.weights.length; i++) {
+                checkpoint.weights[i] = in.readDouble();
+            }
+            checkpoint.order = new int[in.readInt()];
+            for (int i = 0; i < checkpoint.order.length; i++) {
+                checkpoint.order[i] = in.readInt();
+            }
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Captures the state of a random number generator, which
+     * {@link Random} only exposes through serialisation.
+     */
+    static byte[] serialise(Random random) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Random deserialiseRandom(byte[] state) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            return (Random) in.readObject();
+        }
+        catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid random number generator state.", e);
+        }
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a training checkpoint.");
+        if (in.readInt() != VERSION)
+            throw new IOException("Unsupported training checkpoint version.");
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    //see BackPropagation.fingerprint
+    String fingerprint;
+    //true once the results of the training have been recorded
+    boolean recorded;
+    //true if training had converged or started to overfit
+    boolean complete;
+    //number of epochs trained
+    int epoch;
+    double trainingError;
+    double validationError;
+    double timeToTarget;
+    //wall-clock training time up to the checkpoint
+    long elapsedNanos;
+    //running validation statistics, see BackPropagation.ValidationHistory
+    int historyCount;
+    double historyLast;
+    double historyAverage;
+    double historyDeviation;
+    double historyStdDeviation;
+    byte[] randomState;
+    //see IWeightUpdateRule.writeState
+    byte[] updateRuleState;
+    //see SampledNetworkError.writeState, empty without sampled validation
+    byte[] samplerState;
+    double[] weights;
+    //order[i] is the position of the i-th training pattern when training began
+    int[] order;
+    private static final int MAGIC = 0x44524350;//"DRCP"
+    private static final int VERSION = 3;
+}
@@ -0,0 +1,340 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers of a training run. A trainer given an instance, see
+ * {@link BackPropagation#setStats(TrainingStats)}, times the phases of every
+ * epoch and reports the end of each epoch; without one it does not read the
+ * clock at all, so the instrumentation costs nothing when disabled.
+ *
+ * The stats can be registered as an MBean and can append one line per epoch
+ * to a telemetry file in CSV format, with the time spent per phase in that
+ * epoch. Time spent after the last epoch, such as writing the results, is
+ * appended as a last line without an epoch number when the stats are closed.
+ *
+ * Allocated bytes are only measured once allocation tracking has been
+ * enabled for the JVM, see {@link #enableAllocationTracking()}.
+ *
+ * @author Abrie van Aardt
+ */
+public class TrainingStats implements TrainingStatsMBean {
+
+    public enum Phase {
+        FORWARD, BACKWARD, UPDATE, SHUFFLE, VALIDATION, RESULTS_IO
+    }
+
+    public TrainingStats() {
+        this(null);
+    }
+
+    /**
+     * @param _telemetryFile file to append a line to per epoch, or null
+     */
+    public TrainingStats(File _telemetryFile) {
+        telemetryFile = _telemetryFile;
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+        allocations = allocationTracker();
+    }
+
+    /**
+     * Makes the JVM measure the bytes allocated per thread, if it can, for
+     * stats created from then on. This affects every thread of the JVM, so it
+     * is left to the application to call once rather than done per instance.
+     */
+    public static void enableAllocationTracking() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported())
+            ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+    }
+
+    //null if the JVM does not measure allocations per thread
+    private static com.sun.management.ThreadMXBean allocationTracker() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled())
+            return (com.sun.management.ThreadMXBean) threads;
+        return null;
+    }
+
+    /**
+     * Registers the stats with the platform MBean server under the given
+     * name. A failure is logged rather than thrown, as training does not
+     * depend on it.
+     *
+     * @param name
+     */
+    public void register(String name) {
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=TrainingStats,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        }
+        catch (JMException e) {
+            objectName = null;
+            Logger.getLogger(getClass().getName())
+                    .log(Level.WARNING, "Cannot register training stats " + name, e);
+        }
+    }
+
+    /**
+     * Appends the time spent after the last epoch to the telemetry file and
+     * unregisters the stats from the platform MBean server. Closing the stats
+     * again has no effect.
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (telemetryFile != null && epochEnd != 0) {
+            //the stats may be closed long after training, so only timed phases count
+            long nanos = 0;
+            for (int i = 0; i < phaseNanos.length; i++) {
+                nanos += phaseNanos[i].sum() - phaseNanosAtEpochEnd[i];
+            }
+            appendTelemetry("", nanos, phaseNanosAtEpochEnd, 0, -1);
+        }
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException e) {
+            Logger.getLogger(getClass().getName())
+                    .log(Level.WARNING, "Cannot unregister training stats " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Adds time spent in a phase. May be called from any thread.
+     *
+     * @param phase
+     * @param nanos
+     */
+    public void record(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Includes the allocations of the given thread, such as a worker of the
+     * trainer, in the allocated bytes per epoch.
+     *
+     * @param thread
+     */
+    public void track(Thread thread) {
+        trackedThreads.put(thread.getId(), Boolean.TRUE);
+    }
+
+    /**
+     * Marks the start of an epoch on the thread that trains.
+     */
+    public void startEpoch() {
+        track(Thread.currentThread());
+        epochStart = System.nanoTime();
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanosAtEpochStart[i] = phaseNanos[i].sum();
+        }
+        allocatedAtEpochStart = allocatedBytes();
+    }
+
+    /**
+     * Marks the end of an epoch and appends it to the telemetry file.
+     *
+     * @param epoch
+     * @param patternCount number of patterns trained in the epoch
+     * @param _trainingError
+     * @param _validationError the validation error known so far, which lags
+     * by an epoch with pipelined validation
+     */
+    public void endEpoch(int epoch, int patternCount, double _trainingError, double _validationError) {
+        long nanos = Math.max(System.nanoTime() - epochStart, 1);
+        epochs = epoch;
+        patterns += patternCount;
+        epochsPerSecond = 1e9 / nanos;
+        patternsPerSecond = patternCount * 1e9 / nanos;
+        trainingError = _trainingError;
+        validationError = _validationError;
+        allocatedBytesPerEpoch = allocations == null ? -1 : delta(allocatedAtEpochStart, allocatedBytes());
+
+        if (telemetryFile != null)
+            appendTelemetry(Integer.toString(epoch), nanos, phaseNanosAtEpochStart,
+                    patternsPerSecond, allocatedBytesPerEpoch);
+        epochEnd = System.nanoTime();
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanosAtEpochEnd[i] = phaseNanos[i].sum();
+        }
+    }
+
+    /**
+     * @param since the time spent per phase at the start of the line's
+     * period
+     */
+    private void appendTelemetry(String epoch, long nanos, long[] since,
+            double _patternsPerSecond, long allocatedBytes) {
+        File directory = telemetryFile.getAbsoluteFile().getParentFile();
+        if (directory != null)
+            directory.mkdirs();
+        boolean header = !telemetryFile.exists();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(telemetryFile, true))) {
+            if (header) {
+                writer.write("epoch,seconds,patterns_per_second,allocated_bytes,"
+                        + "forward_s,backward_s,update_s,shuffle_s,validation_s,results_io_s,E_t,E_v");
+                writer.newLine();
+            }
+            StringBuilder line = new StringBuilder()
+                    .append(epoch).append(',')
+                    .append(nanos / 1e9).append(',')
+                    .append(_patternsPerSecond).append(',')
+                    .append(allocatedBytes);
+            for (Phase phase : Phase.values()) {
+                line.append(',').append((phaseNanos[phase.ordinal()].sum() - since[phase.ordinal()]) / 1e9);
+            }
+            line.append(',').append(trainingError).append(',').append(validationError);
+            writer.write(line.toString());
+            writer.newLine();
+        }
+        catch (IOException e) {
+            Logger.getLogger(getClass().getName())
+                    .log(Level.WARNING, "Cannot write telemetry to " + telemetryFile, e);
+        }
+    }
+
+    //bytes allocated so far per tracked thread, -1 for threads that ended
+    private Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        if (allocations == null)
+            return allocated;
+        long[] ids = new long[trackedThreads.size()];
+        int count = 0;
+        for (Long id : trackedThreads.keySet()) {
+            if (count == ids.length)
+                break;
+            ids[count++] = id;
+        }
+        long[] bytes = allocations.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < count; i++) {
+            allocated.put(ids[i], bytes[i]);
+        }
+        return allocated;
+    }
+
+    private static long delta(Map<Long, Long> before, Map<Long, Long> after) {
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : after.entrySet()) {
+            if (thread.getValue() < 0)
+                continue;
+            Long start = before.get(thread.getKey());
+            total += thread.getValue() - (start == null || start < 0 ? 0 : start);
+        }
+        return total;
+    }
+
+    private double seconds(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum() / 1e9;
+    }
+
+    @Override
+    public int getEpochs() {
+        return epochs;
+    }
+
+    @Override
+    public long getPatterns() {
+        return patterns;
+    }
+
+    @Override
+    public double getEpochsPerSecond() {
+        return epochsPerSecond;
+    }
+
+    @Override
+    public double getPatternsPerSecond() {
+        return patternsPerSecond;
+    }
+
+    @Override
+    public long getAllocatedBytesPerEpoch() {
+        return allocatedBytesPerEpoch;
+    }
+
+    @Override
+    public double getForwardSeconds() {
+        return seconds(Phase.FORWARD);
+    }
+
+    @Override
+    public double getBackwardSeconds() {
+        return seconds(Phase.BACKWARD);
+    }
+
+    @Override
+    public double getUpdateSeconds() {
+        return seconds(Phase.UPDATE);
+    }
+
+    @Override
+    public double getShuffleSeconds() {
+        return seconds(Phase.SHUFFLE);
+    }
+
+    @Override
+    public double getValidationSeconds() {
+        return seconds(Phase.VALIDATION);
+    }
+
+    @Override
+    public double getResultsIOSeconds() {
+        return seconds(Phase.RESULTS_IO);
+    }
+
+    @Override
+    public double getTrainingError() {
+        return trainingError;
+    }
+
+    @Override
+    public double getValidationError() {
+        return validationError;
+    }
+
+    private final File telemetryFile;
+    private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private final long[] phaseNanosAtEpochStart = new long[Phase.values().length];
+    private final long[] phaseNanosAtEpochEnd = new long[Phase.values().length];
+    //null if allocations are not measured, see enableAllocationTracking
+    private final com.sun.management.ThreadMXBean allocations;
+    private final Map<Long, Boolean> trackedThreads = new ConcurrentHashMap<>();
+    private Map<Long, Long> allocatedAtEpochStart;
+    private long epochStart;
+    //0 until the first epoch ends
+    private long epochEnd;
+    private ObjectName objectName;
+    private boolean closed;
+    //read by JMX clients while training updates them
+    private volatile int epochs;
+    private volatile long patterns;
+    private volatile double epochsPerSecond;
+    private volatile double patternsPerSecond;
+    private volatile long allocatedBytesPerEpoch = -1;
+    private volatile double trainingError = Double.NaN;
+    private volatile double validationError = Double.NaN;
+    private static final String DOMAIN = "ac.up.cos711.digitrecognitionstudy";
+}
@@ -0,0 +1,47 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
+
+/**
+ * Management interface of {@link TrainingStats}, through which a JMX client
+ * such as jconsole can watch a training run. Times are cumulative over all
+ * epochs and, for the forward and backward passes, summed over all threads.
+ *
+ * @author Abrie van Aardt
+ */
+public interface TrainingStatsMBean {
+
+    public int getEpochs();
+
+    public long getPatterns();
+
+    /**
+     * @return epochs per second of the last epoch
+     */
+    public double getEpochsPerSecond();
+
+    /**
+     * @return patterns per second of the last epoch
+     */
+    public double getPatternsPerSecond();
+
+    /**
+     * @return bytes allocated by the training threads in the last epoch, or
+     * -1 if the JVM does not measure allocations
+     */
+    public long getAllocatedBytesPerEpoch();
+
+    public double getForwardSeconds();
+
+    public double getBackwardSeconds();
+
+    public double getUpdateSeconds();
+
+    public double getShuffleSeconds();
+
+    public double getValidationSeconds();
+
+    public double getResultsIOSeconds();
+
+    public double getTrainingError();
+
+    public double getValidationError();
+}
@@ -0,0 +1,111 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training.update;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Adam, which scales the step of every weight by running estimates of the
+ * first and second moments of its gradient. The deltas are gradients scaled
+ * by -learning rate, a scale that cancels out of the ratio of the moments, so
+ * the learning rate serves as Adam's step size, with ε scaled by it as well:
+ * <pre>
+ *  m = β1 * m + (1 - β1) * delta
+ *  v = β2 * v + (1 - β2) * delta^2
+ *  update = learningRate * m' / (sqrt(v') + learningRate * ε)
+ * </pre> where m' and v' are the bias-corrected moments m / (1 - β1^t) and
+ * v / (1 - β2^t). Adam typically needs a much smaller learning rate than
+ * plain gradient descent, e.g. 0.001.
+ *
+ * @author Abrie van Aardt
+ */
+public class Adam implements IWeightUpdateRule {
+
+    /**
+     * Uses β1 = 0.9, β2 = 0.999 and ε = 1e-8.
+     *
+     * @param _learningRate the learning rate the deltas are scaled by
+     */
+    public Adam(double _learningRate) {
+        this(_learningRate, 0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * @param _learningRate the learning rate the deltas are scaled by
+     * @param _beta1 decay rate of the first moment estimate
+     * @param _beta2 decay rate of the second moment estimate
+     * @param _epsilon
+     */
+    public Adam(double _learningRate, double _beta1, double _beta2, double _epsilon) {
+        if (_beta1 < 0 || _beta1 >= 1 || _beta2 < 0 || _beta2 >= 1)
+            throw new IllegalArgumentException("Decay rates must be in [0, 1).");
+        BETA1 = _beta1;
+        BETA2 = _beta2;
+        STEP_SIZE = Math.abs(_learningRate);
+        SCALED_EPSILON = STEP_SIZE * _epsilon;
+    }
+
+    @Override
+    public void initialise(int[] groupSizes) {
+        firstMoments = new double[groupSizes.length][];
+        secondMoments = new double[groupSizes.length][];
+        for (int i = 0; i < groupSizes.length; i++) {
+            firstMoments[i] = new double[groupSizes[i]];
+            secondMoments[i] = new double[groupSizes[i]];
+        }
+        beta1Power = 1;
+        beta2Power = 1;
+    }
+
+    @Override
+    public void computeUpdates(double[][] deltas) {
+        //bias corrections of the moment estimates for this step, with the
+        //step size folded into that of the first moment
+        beta1Power *= BETA1;
+        beta2Power *= BETA2;
+        double firstCorrection = STEP_SIZE / (1 - beta1Power);
+        double secondCorrection = 1 / (1 - beta2Power);
+
+        for (int i = 0; i < deltas.length; i++) {
+            double[] delta = deltas[i];
+            double[] m = firstMoments[i];
+            double[] v = secondMoments[i];
+            for (int k = 0; k < delta.length; k++) {
+                m[k] = BETA1 * m[k] + (1 - BETA1) * delta[k];
+                v[k] = BETA2 * v[k] + (1 - BETA2) * delta[k] * delta[k];
+                delta[k] = m[k] * firstCorrection / (Math.sqrt(v[k] * secondCorrection) + SCALED_EPSILON);
+            }
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeDouble(beta1Power);
+        out.writeDouble(beta2Power);
+        StateArrays.write(out, firstMoments);
+        StateArrays.write(out, secondMoments);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        beta1Power = in.readDouble();
+        beta2Power = in.readDouble();
+        StateArrays.read(in, firstMoments);
+        StateArrays.read(in, secondMoments);
+    }
+
+    @Override
+    public String toString() {
+        return "Adam";
+    }
+
+    private final double BETA1;
+    private final double BETA2;
+    private final double STEP_SIZE;
+    private final double SCALED_EPSILON;
+    //moment estimates per weight, laid out like the deltas
+    private double[][] firstMoments;
+    private double[][] secondMoments;
+    private double beta1Power;
+    private double beta2Power;
+}
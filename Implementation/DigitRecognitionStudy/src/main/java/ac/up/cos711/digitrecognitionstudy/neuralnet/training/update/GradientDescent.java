@@ -0,0 +1,36 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training.update;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+
+/**
+ * Plain gradient descent, which adds the deltas to the weights as they are.
+ *
+ * @author Abrie van Aardt
+ */
+public class GradientDescent implements IWeightUpdateRule {
+
+    @Override
+    public void initialise(int[] groupSizes) {
+    }
+
+    @Override
+    public void computeUpdates(double[][] deltas) {
+        //the deltas already are the updates
+    }
+
+    @Override
+    public void writeState(DataOutput out) {
+        //stateless
+    }
+
+    @Override
+    public void readState(DataInput in) {
+        //stateless
+    }
+
+    @Override
+    public String toString() {
+        return "gradient descent";
+    }
+}
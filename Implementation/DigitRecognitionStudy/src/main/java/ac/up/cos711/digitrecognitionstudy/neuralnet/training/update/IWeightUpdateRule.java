@@ -0,0 +1,53 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training.update;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Strategy that turns the weight deltas accumulated by BackPropagation over a
+ * bin into the changes actually added to the weights. The deltas are the
+ * negative gradient of the bin scaled by the learning rate, so plain gradient
+ * descent adds them unchanged. Rules that keep state per weight, such as a
+ * velocity, keep it in flat arrays parallel to the delta arrays.
+ *
+ * @author Abrie van Aardt
+ */
+public interface IWeightUpdateRule {
+
+    /**
+     * Prepares the rule for a network, discarding any state from previous
+     * training.
+     *
+     * @param groupSizes length of every delta array that will be passed to
+     * {@link #computeUpdates(double[][])}
+     */
+    public void initialise(int[] groupSizes);
+
+    /**
+     * Replaces the deltas of one bin with the changes to add to the weights,
+     * in place. Called once per bin, always with the same arrays in the same
+     * order.
+     *
+     * @param deltas delta arrays, with the sizes given to initialise
+     */
+    public void computeUpdates(double[][] deltas);
+
+    /**
+     * Writes the state kept since initialise, so that training can be resumed
+     * from a checkpoint.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Restores state written by {@link #writeState(DataOutput)} after
+     * initialise has been called with the same group sizes.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void readState(DataInput in) throws IOException;
+}
@@ -0,0 +1,75 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training.update;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Gradient descent with momentum. Every weight keeps a velocity
+ * <pre>
+ *  v = momentum * v + delta
+ * </pre> which is added to the weight instead of the delta itself, so that
+ * consistent gradients accelerate and oscillating ones cancel out.
+ *
+ * @author Abrie van Aardt
+ */
+public class Momentum implements IWeightUpdateRule {
+
+    /**
+     * @param _momentum fraction of the velocity kept from one bin to the
+     * next, in [0, 1)
+     */
+    public Momentum(double _momentum) {
+        if (_momentum < 0 || _momentum >= 1)
+            throw new IllegalArgumentException("Momentum must be in [0, 1).");
+        MOMENTUM = _momentum;
+    }
+
+    @Override
+    public void initialise(int[] groupSizes) {
+        velocities = new double[groupSizes.length][];
+        for (int i = 0; i < groupSizes.length; i++) {
+            velocities[i] = new double[groupSizes[i]];
+        }
+    }
+
+    @Override
+    public void computeUpdates(double[][] deltas) {
+        for (int i = 0; i < deltas.length; i++) {
+            double[] delta = deltas[i];
+            double[] velocity = velocities[i];
+            for (int k = 0; k < delta.length; k++) {
+                velocity[k] = MOMENTUM * velocity[k] + delta[k];
+                delta[k] = update(velocity[k], delta[k]);
+            }
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        StateArrays.write(out, velocities);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        StateArrays.read(in, velocities);
+    }
+
+    /**
+     * @param velocity the updated velocity of a weight
+     * @param delta the delta of the weight
+     * @return the change to add to the weight
+     */
+    protected double update(double velocity, double delta) {
+        return velocity;
+    }
+
+    @Override
+    public String toString() {
+        return "momentum " + MOMENTUM;
+    }
+
+    protected final double MOMENTUM;
+    //one velocity per weight, laid out like the deltas
+    private double[][] velocities;
+}
@@ -0,0 +1,28 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training.update;
+
+/**
+ * Nesterov's accelerated gradient, in the formulation that only needs the
+ * gradient at the current weights: the velocity is updated as by
+ * {@link Momentum}, and the weights move by
+ * <pre>
+ *  momentum * v + delta
+ * </pre> which looks one velocity step ahead.
+ *
+ * @author Abrie van Aardt
+ */
+public class NesterovMomentum extends Momentum {
+
+    public NesterovMomentum(double _momentum) {
+        super(_momentum);
+    }
+
+    @Override
+    protected double update(double velocity, double delta) {
+        return MOMENTUM * velocity + delta;
+    }
+
+    @Override
+    public String toString() {
+        return "Nesterov momentum " + MOMENTUM;
+    }
+}
@@ -0,0 +1,42 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training.update;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary (de)serialisation of the per-weight state arrays of update rules.
+ *
+ * @author Abrie van Aardt
+ */
+final class StateArrays {
+
+    private StateArrays() {
+    }
+
+    static void write(DataOutput out, double[][] arrays) throws IOException {
+        out.writeInt(arrays.length);
+        for (double[] array : arrays) {
+            out.writeInt(array.length);
+            for (double value : array) {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    /**
+     * Reads arrays written by {@link #write(DataOutput, double[][])} into
+     * arrays of the same sizes.
+     */
+    static void read(DataInput in, double[][] arrays) throws IOException {
+        if (in.readInt() != arrays.length)
+            throw new IOException("Update rule state does not match the network.");
+        for (double[] array : arrays) {
+            if (in.readInt() != array.length)
+                throw new IOException("Update rule state does not match the network.");
+            for (int k = 0; k < array.length; k++) {
+                array[k] = in.readDouble();
+            }
+        }
+    }
+}
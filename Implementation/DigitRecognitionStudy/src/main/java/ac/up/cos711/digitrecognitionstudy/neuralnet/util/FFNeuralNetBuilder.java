@@ -1,8 +1,11 @@
 package ac.up.cos711.digitrecognitionstudy.neuralnet.util;
 
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.FFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.FlatFFNeuralNet;
 import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
 import ac.up.cos711.digitrecognitionstudy.function.IFunction;
+import ac.up.cos711.digitrecognitionstudy.function.PiecewiseLinearSigmoid;
 import ac.up.cos711.digitrecognitionstudy.function.util.NotAFunctionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,18 +35,39 @@ public class FFNeuralNetBuilder {
     public FFNeuralNetBuilder addLayer(int neuronCount, Class activationFunction)
             throws NotAFunctionException, ZeroNeuronException {
 
-        LayerConfig layerConfig = new LayerConfig();
-
-        if (neuronCount < 1)
-            throw new ZeroNeuronException();
+        IFunction function;
 
         try {
-            layerConfig.activationFunction = (IFunction) activationFunction.newInstance();
+            function = (IFunction) activationFunction.newInstance();
         }
         catch (InstantiationException | IllegalAccessException | ClassCastException e) {
             throw new NotAFunctionException();
         }
 
+        return addLayer(neuronCount, function);
+    }
+
+    /**
+     * Adds configuration information for an additional layer in the neural
+     * network, using an already configured activation function instance (for
+     * example a {@link PiecewiseLinearSigmoid} with a specific error bound).
+     * The instance is shared by all neurons in the layer.
+     *
+     * @param neuronCount
+     * @param activationFunction
+     * @return FFNeuralNetBuilder
+     * @throws ZeroNeuronException
+     */
+    public FFNeuralNetBuilder addLayer(int neuronCount, IFunction activationFunction)
+            throws ZeroNeuronException {
+
+        LayerConfig layerConfig = new LayerConfig();
+
+        if (neuronCount < 1)
+            throw new ZeroNeuronException();
+
+        layerConfig.activationFunction = activationFunction;
+
         if (config.layers.size() == 0) {//dealing with input layer
             layerConfig.weightCountPerNeuron = 0;
         }
@@ -70,6 +94,22 @@ public class FFNeuralNetBuilder {
         return this;
     }
 
+    /**
+     * Sets the precision in which the weights are stored. This is only
+     * honoured by {@link #buildFlat()}; the neurons built by {@link #build()}
+     * always use double precision.
+     *
+     * @param precision
+     * @param doubleAccumulation whether weighted sums of SINGLE precision
+     * weights are still accumulated in double precision
+     * @return FFNeuralNetBuilder
+     */
+    public FFNeuralNetBuilder setPrecision(Precision precision, boolean doubleAccumulation) {
+        config.precision = precision;
+        config.doubleAccumulation = doubleAccumulation;
+        return this;
+    }
+
     /**
      * Instantiate a feed forward neural network with the specified
      * configuration.
@@ -90,5 +130,30 @@ public class FFNeuralNetBuilder {
         return new FFNeuralNet(tempConfig);
     }
 
+    /**
+     * Instantiate a feed forward neural network with the specified
+     * configuration, storing each layer as a flat weight matrix (see
+     * {@link FlatFFNeuralNet}).
+     *
+     * @return IFFNeuralNet
+     */
+    public IFFNeuralNet buildFlat() {
+
+        Logger
+                .getLogger(getClass().getName())
+                .log(Level.INFO, "Building flat feed-forward neural network"
+                        + " according to specs.");
+
+        //clear configuration to reuse this bulder instance
+        FFNeuralNetConfig tempConfig = config;
+        config = new FFNeuralNetConfig();
+
+        Logger
+                .getLogger(getClass().getName())
+                .log(Level.INFO, "Storing weights in {0} precision.", tempConfig.precision);
+
+        return new FlatFFNeuralNet(tempConfig);
+    }
+
     private FFNeuralNetConfig config = new FFNeuralNetConfig();
 }
@@ -1,5 +1,6 @@
 package ac.up.cos711.digitrecognitionstudy.neuralnet.util;
 
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,4 +14,8 @@ import java.util.List;
  */
 public class FFNeuralNetConfig {
     public List<LayerConfig> layers = new ArrayList<>();
+    //storage of the weights, only honoured by FlatFFNeuralNet
+    public Precision precision = Precision.DOUBLE;
+    //whether SINGLE precision weighted sums are still accumulated in double
+    public boolean doubleAccumulation = true;
 }
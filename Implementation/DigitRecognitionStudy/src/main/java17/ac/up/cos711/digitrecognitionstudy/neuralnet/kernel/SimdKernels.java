@@ -0,0 +1,76 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.kernel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link IVectorKernels} with the incubating Vector API,
+ * using the widest vector shape the CPU supports (e.g. AVX2 or AVX-512).
+ * Loops process whole vectors and finish the remaining elements one at a
+ * time. Since lanes are summed separately, dot products may differ from
+ * {@link ScalarKernels} in the last bits.
+ *
+ * This class is compiled by the "simd" Maven profile and loaded reflectively
+ * by {@link Kernels}.
+ *
+ * @author Abrie van Aardt
+ */
+public class SimdKernels implements IVectorKernels {
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+
+        double sumProduct = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sumProduct += a[aOffset + i] * b[bOffset + i];
+        }
+        return sumProduct;
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector valpha = DoubleVector.broadcast(SPECIES, alpha);
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(valpha, vy).intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void scaleBySigmoidDerivative(double lambda, double[] outputs, double[] signals, int length) {
+        int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector vo = DoubleVector.fromArray(SPECIES, outputs, i);
+            DoubleVector vs = DoubleVector.fromArray(SPECIES, signals, i);
+            //lambda * o * (1 - o)
+            DoubleVector derivative = vo.mul(lambda).mul(vo.neg().add(1));
+            vs.mul(derivative).intoArray(signals, i);
+        }
+
+        for (; i < length; i++) {
+            signals[i] *= lambda * outputs[i] * (1 - outputs[i]);
+        }
+    }
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+}
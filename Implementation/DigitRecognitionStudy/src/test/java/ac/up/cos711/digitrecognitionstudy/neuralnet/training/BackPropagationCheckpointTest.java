@@ -0,0 +1,138 @@
+package ac.up.cos711.digitrecognitionstudy.neuralnet.training;
+
+import ac.up.cos711.digitrecognitionstudy.data.Dataset;
+import ac.up.cos711.digitrecognitionstudy.data.Precision;
+import ac.up.cos711.digitrecognitionstudy.function.Identity;
+import ac.up.cos711.digitrecognitionstudy.function.Sigmoid;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.IFFNeuralNet;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.metric.SampledNetworkError;
+import ac.up.cos711.digitrecognitionstudy.neuralnet.util.FFNeuralNetBuilder;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checkpoints of training on datasets loaded from IDX files, whose columnar
+ * storage returns a new pattern every time one is read.
+ *
+ * @author Abrie van Aardt
+ */
+public class BackPropagationCheckpointTest {
+
+    @Test
+    public void checkpointsNeuronNetworkOnDatasetFromFile() throws Exception {
+        File checkpoint = folder.newFile("neuron.ckpt");
+        checkpoint.delete();
+        train(network(false), checkpoint, 2, false, false);
+        assertTrue(checkpoint.exists());
+    }
+
+    @Test
+    public void checkpointsFlatNetworkOnDatasetFromFile() throws Exception {
+        File checkpoint = folder.newFile("flat.ckpt");
+        checkpoint.delete();
+        train(network(true), checkpoint, 2, false, false);
+        assertTrue(checkpoint.exists());
+    }
+
+    @Test
+    public void resumesToTheWeightsOfUninterruptedTraining() throws Exception {
+        assertResumesExactly(false, false);
+    }
+
+    @Test
+    public void resumesSparseTrainingToTheWeightsOfUninterruptedTraining() throws Exception {
+        assertResumesExactly(true, false);
+    }
+
+    @Test
+    public void resumesSampledValidationWithTheSameSamples() throws Exception {
+        assertResumesExactly(false, true);
+    }
+
+    private void assertResumesExactly(boolean sparse, boolean sampled) throws Exception {
+        File checkpoint = folder.newFile("resumed.ckpt");
+        checkpoint.delete();
+        IFFNeuralNet uninterrupted = network(true);
+        BackPropagation whole = train(uninterrupted, null, 6, sparse, sampled);
+
+        train(network(true), checkpoint, 3, sparse, sampled);
+        IFFNeuralNet resumed = network(true);
+        BackPropagation rest = train(resumed, checkpoint, 6, sparse, sampled);
+
+        assertArrayEquals(uninterrupted.getWeightVector(), resumed.getWeightVector(), 0);
+        assertEquals(whole.getValidationError(), rest.getValidationError(), 0);
+    }
+
+    private BackPropagation train(IFFNeuralNet network, File checkpoint, int maxEpoch,
+            boolean sparse, boolean sampled) throws Exception {
+        BackPropagation backPropagation = new BackPropagation(0, 0.05, 10, 0.2, maxEpoch);
+        backPropagation.setSeed(SEED);
+        if (sparse)
+            backPropagation.setSparseInputs(Dataset.scale(0));
+        if (sampled)
+            backPropagation.setSampledValidation(new SampledNetworkError(1.96, 16, new Random(SEED)));
+        if (checkpoint != null)
+            backPropagation.setCheckpoint(checkpoint, 1);
+        backPropagation.train(network, load("train"), load("t10k"));
+        return backPropagation;
+    }
+
+    private IFFNeuralNet network(boolean flat) throws Exception {
+        FFNeuralNetBuilder builder = new FFNeuralNetBuilder()
+                .addLayer(SIDE * SIDE, Identity.class)
+                .addLayer(12, Sigmoid.class)
+                .addLayer(10, Sigmoid.class);
+        return flat ? builder.buildFlat() : builder.build();
+    }
+
+    //loads the dataset in the same order every time, as a study with a seed does
+    private Dataset load(String name) throws Exception {
+        File prefix = new File(folder.getRoot(), name);
+        if (!new File(prefix.getPath() + "-images.idx3-ubyte").exists())
+            writeIdx(prefix, name.length());
+        return Dataset.fromFile(prefix.getPath(), Precision.DOUBLE, new Random(SEED));
+    }
+
+    //digit-like patterns: a stroke per class on an otherwise blank image
+    private static void writeIdx(File prefix, long seed) throws IOException {
+        Random random = new Random(seed);
+        int[] labels = new int[PATTERNS];
+        try (DataOutputStream images = new DataOutputStream(
+                new FileOutputStream(prefix.getPath() + "-images.idx3-ubyte"))) {
+            images.writeInt(2051);
+            images.writeInt(PATTERNS);
+            images.writeInt(SIDE);
+            images.writeInt(SIDE);
+            for (int i = 0; i < PATTERNS; i++) {
+                labels[i] = random.nextInt(10);
+                for (int pixel = 0; pixel < SIDE * SIDE; pixel++) {
+                    boolean ink = pixel % 10 == labels[i] && random.nextDouble() < 0.8;
+                    images.writeByte(ink ? 1 + random.nextInt(255) : 0);
+                }
+            }
+        }
+        try (DataOutputStream classes = new DataOutputStream(
+                new FileOutputStream(prefix.getPath() + "-labels.idx1-ubyte"))) {
+            classes.writeInt(2049);
+            classes.writeInt(PATTERNS);
+            for (int label : labels) {
+                classes.writeByte(label);
+            }
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private static final int SIDE = 8;
+    private static final int PATTERNS = 300;
+    private static final long SEED = 7;
+}